@@ -26,6 +26,7 @@ import org.spongepowered.configurate.ConfigurationOptions;
 import org.spongepowered.configurate.serialize.TypeSerializerCollection;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
 import ua.nanit.limbo.configuration.serializers.*;
+import ua.nanit.limbo.litebans.FailPolicy;
 import ua.nanit.limbo.protocol.registry.Version;
 import ua.nanit.limbo.server.TransportType;
 import ua.nanit.limbo.server.data.*;
@@ -39,6 +40,7 @@ import java.net.SocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 @RequiredArgsConstructor
 @Getter
@@ -74,22 +76,62 @@ public final class LimboConfig {
 
     private InfoForwarding infoForwarding;
     private long readTimeout;
+    private long keepAliveTimeout;
+    private boolean sharedKeepAlive;
+    private int compressionThreshold;
     private int debugLevel;
     private boolean logPlayersIp;
 
     private TransportType transportType;
     private int bossGroupSize;
     private int workerGroupSize;
+    private int statusGroupSize;
+
+    private boolean useAdmissionControl;
+    private long admissionWindow;
+    private int maxConnectionsPerIp;
+    private int maxConnectionsPerSubnet;
+    private int maxConcurrentPerIp;
+    private int maxConcurrentPerSubnet;
+    private long admissionCooldown;
+    private List<String> admissionExempt;
 
     private boolean useTrafficLimits;
     private int maxPacketSize;
     private double interval;
+    private int trafficBuckets;
     private double maxPacketRate;
     private double maxPacketBytesRate;
 
+    private boolean useEgressShaping;
+    private long egressGlobalLimit;
+    private long egressChannelLimit;
+    private long egressMaxQueueSize;
+    private long egressCheckInterval;
+
     private boolean liteBansIntegration;
     private String liteBansConnectionString;
     private String liteBansKickMessageFormat;
+    private int liteBansLookupThreads;
+    private int liteBansPoolSize;
+    private long liteBansValidationInterval;
+    private long liteBansLookupTimeout;
+    private FailPolicy liteBansFailPolicy;
+    private long liteBansNegativeCacheTtl;
+    private long liteBansCacheSize;
+    private int liteBansBreakerFailureThreshold;
+    private long liteBansBreakerOpenTime;
+    private long liteBansBatchDelay;
+    private int liteBansBatchSize;
+    private boolean liteBansBloomFilter;
+    private long liteBansBloomRebuildInterval;
+    private double liteBansBloomFalsePositiveRate;
+    private long liteBansEnforceInterval;
+    private boolean liteBansIpBans;
+    private long liteBansIpBansSyncInterval;
+    private boolean liteBansIndex;
+    private long liteBansSyncInterval;
+    private String liteBansSnapshotFile;
 
     public void load() throws Exception {
         ConfigurationOptions options = ConfigurationOptions.defaults().serializers(getSerializers());
@@ -139,21 +181,61 @@ public final class LimboConfig {
 
         infoForwarding = conf.node("infoForwarding").get(InfoForwarding.class);
         readTimeout = conf.node("readTimeout").getLong(30000);
+        keepAliveTimeout = conf.node("keepAliveTimeout").getLong(15000);
+        sharedKeepAlive = conf.node("sharedKeepAlive").getBoolean(true);
+        compressionThreshold = conf.node("compressionThreshold").getInt(-1);
         debugLevel = conf.node("debugLevel").getInt(2);
         logPlayersIp = conf.node("logPlayersIp").getBoolean(true);
 
         transportType = conf.node("netty", "transportType").get(TransportType.class, TransportType.EPOLL);
         bossGroupSize = conf.node("netty", "threads", "bossGroup").getInt(1);
         workerGroupSize = conf.node("netty", "threads", "workerGroup").getInt(4);
+        statusGroupSize = conf.node("netty", "threads", "statusGroup").getInt(0);
+
+        useAdmissionControl = conf.node("admission", "enable").getBoolean(false);
+        admissionWindow = conf.node("admission", "window").getLong(1000);
+        maxConnectionsPerIp = conf.node("admission", "maxConnectionsPerIp").getInt(3);
+        maxConnectionsPerSubnet = conf.node("admission", "maxConnectionsPerSubnet").getInt(20);
+        maxConcurrentPerIp = conf.node("admission", "maxConcurrentPerIp").getInt(3);
+        maxConcurrentPerSubnet = conf.node("admission", "maxConcurrentPerSubnet").getInt(30);
+        admissionCooldown = conf.node("admission", "cooldown").getLong(10000);
+        admissionExempt = conf.node("admission", "exempt").getList(String.class, List.of());
 
         useTrafficLimits = conf.node("traffic", "enable").getBoolean(false);
         maxPacketSize = conf.node("traffic", "maxPacketSize").getInt(-1);
         interval = conf.node("traffic", "interval").getDouble(-1.0);
+        trafficBuckets = conf.node("traffic", "buckets").getInt(150);
         maxPacketRate = conf.node("traffic", "maxPacketRate").getDouble(-1.0);
         maxPacketBytesRate = conf.node("traffic", "maxPacketBytesRate").getDouble(-1.0);
 
+        useEgressShaping = conf.node("egress", "enable").getBoolean(false);
+        egressGlobalLimit = conf.node("egress", "globalLimit").getLong(0);
+        egressChannelLimit = conf.node("egress", "channelLimit").getLong(0);
+        egressMaxQueueSize = conf.node("egress", "maxQueueSize").getLong(64L * 1024 * 1024);
+        egressCheckInterval = conf.node("egress", "checkInterval").getLong(250);
+
         liteBansIntegration = conf.node("liteBans", "enabled").getBoolean(false);
         liteBansConnectionString = conf.node("liteBans", "connectionString").getString();
+        liteBansLookupThreads = conf.node("liteBans", "lookupThreads").getInt(4);
+        liteBansPoolSize = conf.node("liteBans", "poolSize").getInt(4);
+        liteBansValidationInterval = conf.node("liteBans", "validationInterval").getLong(30000);
+        liteBansLookupTimeout = conf.node("liteBans", "lookupTimeout").getLong(2000);
+        liteBansFailPolicy = conf.node("liteBans", "failPolicy").get(FailPolicy.class, FailPolicy.ALLOW);
+        liteBansNegativeCacheTtl = conf.node("liteBans", "negativeCacheTtl").getLong(10000);
+        liteBansCacheSize = conf.node("liteBans", "cacheSize").getLong(50000);
+        liteBansBreakerFailureThreshold = conf.node("liteBans", "circuitBreaker", "failureThreshold").getInt(5);
+        liteBansBreakerOpenTime = conf.node("liteBans", "circuitBreaker", "openTime").getLong(10000);
+        liteBansBatchDelay = conf.node("liteBans", "batch", "delay").getLong(5);
+        liteBansBatchSize = conf.node("liteBans", "batch", "maxSize").getInt(100);
+        liteBansBloomFilter = conf.node("liteBans", "bloomFilter", "enable").getBoolean(false);
+        liteBansBloomRebuildInterval = conf.node("liteBans", "bloomFilter", "rebuildInterval").getLong(60000);
+        liteBansBloomFalsePositiveRate = conf.node("liteBans", "bloomFilter", "falsePositiveRate").getDouble(0.01);
+        liteBansEnforceInterval = conf.node("liteBans", "enforceInterval").getLong(10000);
+        liteBansIpBans = conf.node("liteBans", "ipBans", "enable").getBoolean(false);
+        liteBansIpBansSyncInterval = conf.node("liteBans", "ipBans", "syncInterval").getLong(10000);
+        liteBansIndex = conf.node("liteBans", "index", "enable").getBoolean(false);
+        liteBansSyncInterval = conf.node("liteBans", "index", "syncInterval").getLong(5000);
+        liteBansSnapshotFile = conf.node("liteBans", "index", "snapshotFile").getString("litebans-index.bin");
         liteBansKickMessageFormat = conf.node("liteBans", "kickMessageFormat").getString("""
               \s
               \s
@@ -194,6 +276,7 @@ public final class LimboConfig {
                 .register(SocketAddress.class, new SocketAddressSerializer())
                 .register(Component.class, new ComponentSerializer())
                 .register(TransportType.class, new TransportTypeSerializer())
+                .register(FailPolicy.class, new FailPolicySerializer())
                 .register(Version.class, new VersionSerializer())
                 .register(DimensionType.class, new DimensionTypeSerializer())
                 .register(NamespacedKey.class, new NamespacedKeySerializer())
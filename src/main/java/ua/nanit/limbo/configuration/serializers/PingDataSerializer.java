@@ -33,6 +33,7 @@ public class PingDataSerializer implements TypeSerializer<PingData> {
         pingData.setDescription(node.node("description").get(Component.class, Component.empty()));
         pingData.setVersion(node.node("version").get(Component.class, Component.empty()));
         pingData.setProtocol(node.node("protocol").getInt(-1));
+        pingData.setCacheInterval(node.node("cacheInterval").getLong(0));
         return pingData;
     }
 
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import lombok.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import ua.nanit.limbo.configuration.LimboConfig;
+import ua.nanit.limbo.server.Log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the rate of new connections and the count of open connections per address and per subnet.
+ * IPv4 addresses are limited per address and per /24, IPv6 per /64 (usually one client) and per /48.
+ * Counters are kept in striped open addressing tables with primitive keys,
+ * and entries which have nothing to remember anymore are reused for other addresses.
+ * If a table is full of live entries, new addresses are rejected rather than let through untracked.
+ * A connection carries exactly one handshake, so the connection rate limits handshakes as well
+ */
+public final class AdmissionControl {
+
+    // IPv4 keys are marked with a prefix from ::/16, which is never used by global unicast IPv6 addresses
+    private static final long IPV4_MARK = 0xFFFFL << 32;
+
+    private final Table addresses;
+    private final Table subnets;
+    private final Set<InetAddress> exempt = new HashSet<>();
+
+    public AdmissionControl(@NonNull LimboConfig config) {
+        this.addresses = new Table(config.getAdmissionWindow(), config.getMaxConnectionsPerIp(),
+                config.getMaxConcurrentPerIp(), config.getAdmissionCooldown());
+        this.subnets = new Table(config.getAdmissionWindow(), config.getMaxConnectionsPerSubnet(),
+                config.getMaxConcurrentPerSubnet(), config.getAdmissionCooldown());
+
+        for (String address : config.getAdmissionExempt()) {
+            try {
+                this.exempt.add(InetAddress.getByName(address));
+            } catch (UnknownHostException e) {
+                Log.warning("Invalid admission exempt address: %s", address);
+            }
+        }
+    }
+
+    /**
+     * Try to admit a new connection. The returned permit must be released when the connection is closed
+     *
+     * @param remoteAddress Connection address
+     * @return Permit of the admitted connection, or null if it must be closed
+     */
+    @Nullable
+    public Permit acquire(@NonNull SocketAddress remoteAddress) {
+        InetAddress address = getAddress(remoteAddress);
+        if (address == null) {
+            return Permit.UNTRACKED;
+        }
+
+        byte[] bytes = address.getAddress();
+        long now = System.currentTimeMillis();
+        long addressKey = addressKey(bytes);
+
+        if (!this.addresses.acquire(addressKey, now)) {
+            return null;
+        }
+
+        long subnetKey = subnetKey(bytes);
+        if (!this.subnets.acquire(subnetKey, now)) {
+            this.addresses.release(addressKey);
+            return null;
+        }
+
+        return new Permit(this, addressKey, subnetKey);
+    }
+
+    private InetAddress getAddress(SocketAddress remoteAddress) {
+        if (!(remoteAddress instanceof InetSocketAddress inetAddress) || inetAddress.getAddress() == null) {
+            return null;
+        }
+
+        InetAddress address = inetAddress.getAddress();
+        return this.exempt.contains(address) ? null : address;
+    }
+
+    private static long addressKey(byte[] address) {
+        if (address.length == 4) {
+            return IPV4_MARK | (readInt(address, 0) & 0xFFFFFFFFL);
+        }
+        return prefix(address, 64);
+    }
+
+    private static long subnetKey(byte[] address) {
+        if (address.length == 4) {
+            return IPV4_MARK | (readInt(address, 0) & 0xFFFFFF00L);
+        }
+        return prefix(address, 48);
+    }
+
+    private static long prefix(byte[] address, int bits) {
+        long prefix = ((long) readInt(address, 0) << 32) | (readInt(address, 4) & 0xFFFFFFFFL);
+        return prefix & (-1L << (64 - bits));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Open connection counted by the admission control. Releasing it undoes only what was counted
+     * on acquire, and only once
+     */
+    public static final class Permit {
+
+        private static final Permit UNTRACKED = new Permit(null, 0, 0);
+
+        private final AdmissionControl owner;
+        private final long addressKey;
+        private final long subnetKey;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(AdmissionControl owner, long addressKey, long subnetKey) {
+            this.owner = owner;
+            this.addressKey = addressKey;
+            this.subnetKey = subnetKey;
+        }
+
+        public void release() {
+            if (this.owner == null || !this.released.compareAndSet(false, true)) {
+                return;
+            }
+
+            this.owner.addresses.release(this.addressKey);
+            this.owner.subnets.release(this.subnetKey);
+        }
+    }
+
+    /**
+     * Counters of one address family level, split into independently locked stripes
+     */
+    private static final class Table {
+
+        private static final int STRIPES = 16;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+        private final long window;
+        private final int maxRate;
+        private final int maxConcurrent;
+        private final long cooldown;
+
+        Table(long window, int maxRate, int maxConcurrent, long cooldown) {
+            this.window = window;
+            this.maxRate = maxRate;
+            this.maxConcurrent = maxConcurrent;
+            this.cooldown = cooldown;
+
+            for (int i = 0; i < STRIPES; i++) {
+                this.stripes[i] = new Stripe();
+            }
+        }
+
+        boolean acquire(long key, long now) {
+            long hash = mix(key);
+            Stripe stripe = this.stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+
+            synchronized (stripe) {
+                int slot = stripe.findOrInsert(key, (int) hash, now, this.window);
+                if (slot == -1) {
+                    // Stripe is at its maximum size and full of live entries, likely a flood of new addresses
+                    return false;
+                }
+
+                if (now < stripe.blockedUntil[slot]) {
+                    return false;
+                }
+
+                if (now - stripe.windowStart[slot] >= this.window) {
+                    stripe.windowStart[slot] = now;
+                    stripe.windowCount[slot] = 0;
+                }
+
+                if (this.maxRate > 0 && ++stripe.windowCount[slot] > this.maxRate) {
+                    stripe.blockedUntil[slot] = now + this.cooldown;
+                    return false;
+                }
+
+                if (this.maxConcurrent > 0 && stripe.concurrent[slot] >= this.maxConcurrent) {
+                    return false;
+                }
+
+                stripe.concurrent[slot]++;
+                return true;
+            }
+        }
+
+        void release(long key) {
+            long hash = mix(key);
+            Stripe stripe = this.stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+
+            synchronized (stripe) {
+                int slot = stripe.find(key, (int) hash);
+                if (slot != -1 && stripe.concurrent[slot] > 0) {
+                    stripe.concurrent[slot]--;
+                }
+            }
+        }
+
+        private static long mix(long key) {
+            // Murmur3 finalizer, subnet keys differ only in few bits
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+            key *= 0xC4CEB9FE1A85EC53L;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+
+    /**
+     * Open addressing table with linear probing. Entries are never removed, but an entry without
+     * open connections, with a passed window and without a block is expired and can be reused
+     */
+    private static final class Stripe {
+
+        private static final int INITIAL_CAPACITY = 64;
+        private static final int MAX_CAPACITY = 1 << 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private int[] concurrent = new int[INITIAL_CAPACITY];
+        private int[] windowCount = new int[INITIAL_CAPACITY];
+        private long[] windowStart = new long[INITIAL_CAPACITY];
+        private long[] blockedUntil = new long[INITIAL_CAPACITY];
+        private int size;
+
+        int find(long key, int hash) {
+            int mask = this.keys.length - 1;
+
+            for (int slot = hash & mask; this.used[slot]; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == key) {
+                    return slot;
+                }
+            }
+
+            return -1;
+        }
+
+        int findOrInsert(long key, int hash, long now, long window) {
+            int mask = this.keys.length - 1;
+            int expiredSlot = -1;
+            int slot = hash & mask;
+
+            for (; this.used[slot]; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == key) {
+                    return slot;
+                }
+                if (expiredSlot == -1 && isExpired(slot, now, window)) {
+                    expiredSlot = slot;
+                }
+            }
+
+            if (expiredSlot != -1) {
+                reset(expiredSlot, key);
+                return expiredSlot;
+            }
+
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+                if (!rebuild(now, window)) {
+                    return -1;
+                }
+                return findOrInsert(key, hash, now, window);
+            }
+
+            this.used[slot] = true;
+            this.size++;
+            reset(slot, key);
+            return slot;
+        }
+
+        private boolean isExpired(int slot, long now, long window) {
+            return this.concurrent[slot] == 0
+                    && now - this.windowStart[slot] >= window
+                    && now >= this.blockedUntil[slot];
+        }
+
+        private void reset(int slot, long key) {
+            this.keys[slot] = key;
+            this.concurrent[slot] = 0;
+            this.windowCount[slot] = 0;
+            this.windowStart[slot] = 0;
+            this.blockedUntil[slot] = 0;
+        }
+
+        /**
+         * Drop expired entries and grow the table if it's still too full
+         *
+         * @return False if the table is at its maximum size and has no room for a new entry
+         */
+        private boolean rebuild(long now, long window) {
+            int live = 0;
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.used[i] && !isExpired(i, now, window)) {
+                    live++;
+                }
+            }
+
+            int capacity = this.keys.length;
+            if ((live + 1) * 2 > capacity && capacity < MAX_CAPACITY) {
+                capacity *= 2;
+            }
+
+            if ((live + 1) * 4 > capacity * 3) {
+                return false;
+            }
+
+            long[] oldKeys = this.keys;
+            boolean[] oldUsed = this.used;
+            int[] oldConcurrent = this.concurrent;
+            int[] oldWindowCount = this.windowCount;
+            long[] oldWindowStart = this.windowStart;
+            long[] oldBlockedUntil = this.blockedUntil;
+
+            this.keys = new long[capacity];
+            this.used = new boolean[capacity];
+            this.concurrent = new int[capacity];
+            this.windowCount = new int[capacity];
+            this.windowStart = new long[capacity];
+            this.blockedUntil = new long[capacity];
+            this.size = 0;
+
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (!oldUsed[i]) {
+                    continue;
+                }
+
+                // Check the old arrays, since the fields already point to the new ones
+                boolean expired = oldConcurrent[i] == 0
+                        && now - oldWindowStart[i] >= window
+                        && now >= oldBlockedUntil[i];
+                if (expired) {
+                    continue;
+                }
+
+                int slot = (int) Table.mix(oldKeys[i]) & mask;
+                while (this.used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+
+                this.used[slot] = true;
+                this.keys[slot] = oldKeys[i];
+                this.concurrent[slot] = oldConcurrent[i];
+                this.windowCount[slot] = oldWindowCount[i];
+                this.windowStart[slot] = oldWindowStart[i];
+                this.blockedUntil[slot] = oldBlockedUntil[i];
+                this.size++;
+            }
+
+            return true;
+        }
+    }
+}
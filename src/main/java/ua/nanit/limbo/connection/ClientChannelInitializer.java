@@ -21,37 +21,95 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.timeout.ReadTimeoutHandler;
-import lombok.AllArgsConstructor;
+import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
+import lombok.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import ua.nanit.limbo.configuration.LimboConfig;
 import ua.nanit.limbo.connection.pipeline.*;
 import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
 
+import java.net.SocketAddress;
 import java.util.concurrent.TimeUnit;
 
-@AllArgsConstructor
 public class ClientChannelInitializer extends ChannelInitializer<Channel> {
 
     private final LimboServer server;
+    private final @Nullable AdmissionControl admissionControl;
+    private final @Nullable GlobalChannelTrafficShapingHandler egressShaper;
+
+    public ClientChannelInitializer(@NonNull LimboServer server) {
+        this.server = server;
+        this.admissionControl = server.getConfig().isUseAdmissionControl() ? new AdmissionControl(server.getConfig()) : null;
+        this.egressShaper = server.getConfig().isUseEgressShaping() ? createEgressShaper(server) : null;
+    }
+
+    private static GlobalChannelTrafficShapingHandler createEgressShaper(LimboServer server) {
+        LimboConfig config = server.getConfig();
+
+        // Shared by all channels, it splits the global limit fairly between channels with queued writes.
+        // Only the global counter is scheduled, and the boss group is mostly idle
+        GlobalChannelTrafficShapingHandler shaper = new GlobalChannelTrafficShapingHandler(server.getBossGroup(),
+                config.getEgressGlobalLimit(), 0, config.getEgressChannelLimit(), 0, config.getEgressCheckInterval());
+        shaper.setMaxGlobalWriteSize(config.getEgressMaxQueueSize());
+        return shaper;
+    }
 
     @Override
     protected void initChannel(Channel channel) {
+        if (admissionControl != null) {
+            SocketAddress address = channel.remoteAddress();
+
+            AdmissionControl.Permit permit = admissionControl.acquire(address);
+
+            if (permit == null) {
+                Log.debug("Rejected connection from %s by admission limits", address);
+                channel.close();
+                return;
+            }
+
+            channel.closeFuture().addListener(future -> permit.release());
+        }
+
+        ChannelPipeline pipeline = channel.pipeline();
+
+        pipeline.addLast("timeout", createTimeoutHandler());
+        // Pings are answered by the handshake handler, the rest is added only for logins
+        pipeline.addLast("handshake", new HandshakeHandler(server, this));
+    }
+
+    @NonNull
+    ReadTimeoutHandler createTimeoutHandler() {
+        return new ReadTimeoutHandler(server.getConfig().getReadTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    void initLoginPipeline(@NonNull Channel channel) {
         ChannelPipeline pipeline = channel.pipeline();
 
         PacketDecoder decoder = new PacketDecoder();
         PacketEncoder encoder = new PacketEncoder();
         ClientConnection connection = new ClientConnection(channel, server, decoder, encoder);
 
-        pipeline.addLast("timeout", new ReadTimeoutHandler(server.getConfig().getReadTimeout(),
-                TimeUnit.MILLISECONDS));
-        pipeline.addLast("frame_decoder", new VarIntFrameDecoder());
-        pipeline.addLast("frame_encoder", new VarIntLengthEncoder());
-
+        ChannelTrafficHandler trafficHandler = null;
         if (server.getConfig().isUseTrafficLimits()) {
-            pipeline.addLast("traffic_limit", new ChannelTrafficHandler(
+            trafficHandler = new ChannelTrafficHandler(
                     server.getConfig().getMaxPacketSize(),
                     server.getConfig().getInterval(),
+                    server.getConfig().getTrafficBuckets(),
                     server.getConfig().getMaxPacketRate(),
                     server.getConfig().getMaxPacketBytesRate()
-            ));
+            );
+        }
+
+        if (egressShaper != null) {
+            // First in the pipeline, so it shapes the encoded frames
+            pipeline.addFirst("egress_shaping", egressShaper);
+        }
+
+        pipeline.addLast("frame_decoder", new VarIntFrameDecoder(decoder, trafficHandler));
+
+        if (trafficHandler != null) {
+            pipeline.addLast("traffic_limit", trafficHandler);
         }
 
         pipeline.addLast("decoder", decoder);
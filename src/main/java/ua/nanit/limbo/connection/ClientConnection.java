@@ -21,6 +21,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -29,21 +30,23 @@ import net.kyori.adventure.text.format.NamedTextColor;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jetbrains.annotations.NotNull;
 import ua.nanit.limbo.connection.pipeline.PacketDecoder;
+import ua.nanit.limbo.connection.pipeline.PacketDecompressor;
 import ua.nanit.limbo.connection.pipeline.PacketEncoder;
+import ua.nanit.limbo.connection.pipeline.VarIntFrameDecoder;
 import ua.nanit.limbo.protocol.Packet;
-import ua.nanit.limbo.protocol.PacketSnapshot;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginDisconnect;
+import ua.nanit.limbo.protocol.packets.login.PacketSetCompression;
 import ua.nanit.limbo.protocol.packets.play.PacketDisconnect;
 import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
 import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LatencyHistogram;
 import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.server.Log;
 import ua.nanit.limbo.util.ComponentUtils;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -51,6 +54,9 @@ import java.util.concurrent.TimeUnit;
 @Getter
 public class ClientConnection extends ChannelInboundHandlerAdapter {
 
+    private static final int PACING_RETRY_MIN_MILLIS = 25;
+    private static final int PACING_RETRY_MAX_MILLIS = 75;
+
     private final LimboServer server;
     private final Channel channel;
     private final GameProfile gameProfile;
@@ -65,6 +71,10 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
     @Setter
     private int velocityLoginMessageId = -1;
 
+    private boolean keepAlivePending;
+    private long keepAliveId;
+    private long keepAliveSentTime;
+
     public ClientConnection(@NonNull Channel channel,
                             @NonNull LimboServer server,
                             @NonNull PacketDecoder decoder,
@@ -121,6 +131,11 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
             return;
         }
 
+        int compressionThreshold = server.getConfig().getCompressionThreshold();
+        if (compressionThreshold >= 0 && clientVersion.moreOrEqual(Version.V1_8)) {
+            enableCompression(compressionThreshold);
+        }
+
         sendPacket(PacketSnapshots.PACKET_LOGIN_SUCCESS);
 
         server.getConnections().addConnection(this);
@@ -138,95 +153,27 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         updateState(State.PLAY);
 
         Runnable sendPlayPackets = () -> {
-            writePacket(PacketSnapshots.PACKET_JOIN_GAME);
-            writePacket(PacketSnapshots.PACKET_PLAYER_ABILITIES);
-
-            if (clientVersion.less(Version.V1_9)) {
-                writePacket(PacketSnapshots.PACKET_PLAYER_POS_AND_LOOK_LEGACY);
-            } else {
-                writePacket(PacketSnapshots.PACKET_PLAYER_POS_AND_LOOK);
-            }
-
-            if (clientVersion.moreOrEqual(Version.V1_19_3)) {
-                writePacket(PacketSnapshots.PACKET_SPAWN_POSITION);
-            }
-
-            if (server.getConfig().isUsePlayerList() || clientVersion.equals(Version.V1_16_4)) {
-                writePacket(PacketSnapshots.PACKET_PLAYER_INFO);
-            }
-
-            if (clientVersion.moreOrEqual(Version.V1_13)) {
-                writePacket(PacketSnapshots.PACKET_DECLARE_COMMANDS);
-
-                if (PacketSnapshots.PACKET_PLUGIN_MESSAGE != null) {
-                    writePacket(PacketSnapshots.PACKET_PLUGIN_MESSAGE);
-                }
-            }
-
-            if (PacketSnapshots.PACKET_BOSS_BAR != null && clientVersion.moreOrEqual(Version.V1_9)) {
-                writePacket(PacketSnapshots.PACKET_BOSS_BAR);
-            }
-
-            if (PacketSnapshots.PACKET_JOIN_MESSAGE != null) {
-                writePacket(PacketSnapshots.PACKET_JOIN_MESSAGE);
-            }
-
-            if (PacketSnapshots.PACKET_TITLE_TITLE != null && clientVersion.moreOrEqual(Version.V1_8)) {
-                writeTitle();
-            }
-
-            if (PacketSnapshots.PACKET_HEADER_AND_FOOTER != null && clientVersion.moreOrEqual(Version.V1_8)) {
-                writePacket(PacketSnapshots.PACKET_HEADER_AND_FOOTER);
-            }
-
-            if (clientVersion.moreOrEqual(Version.V1_20_3)) {
-                writePacket(PacketSnapshots.PACKET_START_WAITING_CHUNKS);
-
-                writePackets(PacketSnapshots.PACKETS_CHUNKS);
-            }
+            writePacket(PacketSnapshots.PACKETS_SPAWN);
 
             sendKeepAlive();
+            KeepAliveWheel.schedule(this);
         };
 
         if (clientVersion.lessOrEqual(Version.V1_7_6)) {
-            this.channel.eventLoop().schedule(sendPlayPackets, 100, TimeUnit.MILLISECONDS);
+            this.channel.eventLoop().schedule(() -> sendPaced(sendPlayPackets), 100, TimeUnit.MILLISECONDS);
         } else {
-            sendPlayPackets.run();
+            sendPaced(sendPlayPackets);
         }
     }
 
     public void onLoginAcknowledgedReceived() {
         updateState(State.CONFIGURATION);
 
-        if (PacketSnapshots.PACKET_PLUGIN_MESSAGE != null) {
-            writePacket(PacketSnapshots.PACKET_PLUGIN_MESSAGE);
-        }
-
-        if (clientVersion.moreOrEqual(Version.V1_20_5)) {
-            sendPacket(PacketSnapshots.PACKET_KNOWN_PACKS);
-            return;
-        }
-
-        writePacket(PacketSnapshots.PACKET_REGISTRY_DATA);
-
-        sendPacket(PacketSnapshots.PACKET_FINISH_CONFIGURATION);
+        sendPaced(() -> sendPacket(PacketSnapshots.PACKETS_CONFIGURATION));
     }
 
     public void onKnownPacksReceived() {
-        List<PacketSnapshot> registry = PacketSnapshots.getPacketsRegistryData(this.clientVersion);
-        if (registry != null) {
-            writePackets(registry);
-        }
-
-        writePacket(PacketSnapshots.PACKET_UPDATE_TAGS);
-
-        sendPacket(PacketSnapshots.PACKET_FINISH_CONFIGURATION);
-    }
-
-    private void writePackets(@NonNull List<PacketSnapshot> packets) {
-        for (PacketSnapshot packet : packets) {
-            writePacket(packet);
-        }
+        sendPaced(() -> sendPacket(PacketSnapshots.PACKETS_CONFIGURATION_REGISTRY));
     }
 
     public void disconnect(@NonNull Component reason) {
@@ -256,24 +203,43 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         sendPacketAndClose(packet);
     }
 
-    public void writeTitle() {
-        if (clientVersion.moreOrEqual(Version.V1_17)) {
-            writePacket(PacketSnapshots.PACKET_TITLE_TITLE);
-            writePacket(PacketSnapshots.PACKET_TITLE_SUBTITLE);
-            writePacket(PacketSnapshots.PACKET_TITLE_TIMES);
-        } else {
-            writePacket(PacketSnapshots.PACKET_TITLE_LEGACY_TITLE);
-            writePacket(PacketSnapshots.PACKET_TITLE_LEGACY_SUBTITLE);
-            writePacket(PacketSnapshots.PACKET_TITLE_LEGACY_TIMES);
+    public void sendKeepAlive() {
+        sendKeepAlive(null);
+    }
+
+    void sendKeepAlive(@Nullable KeepAliveRound round) {
+        if (!state.equals(State.PLAY)) {
+            return;
         }
+
+        long now = System.nanoTime();
+
+        // Wait for the answer to the previous keep-alive instead of sending a new one
+        if (keepAlivePending) {
+            if (now - keepAliveSentTime >= TimeUnit.MILLISECONDS.toNanos(server.getConfig().getKeepAliveTimeout())) {
+                disconnect(Component.text("Timed out", NamedTextColor.RED));
+            }
+            return;
+        }
+
+        long id = round != null ? round.getId() : ThreadLocalRandom.current().nextLong();
+
+        // Clients before 1.12.2 send the id back as int
+        keepAliveId = clientVersion.less(Version.V1_12_2) ? (int) id : id;
+        keepAliveSentTime = now;
+        keepAlivePending = true;
+
+        sendPacket(round != null ? round.getPacket(clientVersion) : new PacketKeepAlive(keepAliveId));
     }
 
-    public void sendKeepAlive() {
-        if (state.equals(State.PLAY)) {
-            PacketKeepAlive keepAlive = new PacketKeepAlive();
-            keepAlive.setId(ThreadLocalRandom.current().nextLong());
-            sendPacket(keepAlive);
+    public void onKeepAliveReceived(long id) {
+        if (!keepAlivePending || id != keepAliveId) {
+            disconnect(Component.text("Invalid keep-alive", NamedTextColor.RED));
+            return;
         }
+
+        keepAlivePending = false;
+        LatencyHistogram.current().record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - keepAliveSentTime));
     }
 
     public void sendPacket(@NonNull Object packet) {
@@ -294,6 +260,37 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Run a large write once both this channel and the global egress queues have room.
+     * Until then, the write is retried with a jitter, so players joining at once
+     * take turns instead of piling their join data up in the outbound buffers
+     */
+    private void sendPaced(@NonNull Runnable write) {
+        if (!isConnected()) {
+            return;
+        }
+
+        GlobalChannelTrafficShapingHandler shaper = channel.pipeline().get(GlobalChannelTrafficShapingHandler.class);
+        boolean hasRoom = shaper == null || shaper.queuesSize() < shaper.getMaxGlobalWriteSize();
+
+        if (channel.isWritable() && hasRoom) {
+            write.run();
+            return;
+        }
+
+        int delay = ThreadLocalRandom.current().nextInt(PACING_RETRY_MIN_MILLIS, PACING_RETRY_MAX_MILLIS);
+        channel.eventLoop().schedule(() -> sendPaced(write), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void enableCompression(int threshold) {
+        // Set compression packet itself is sent uncompressed
+        writePacket(new PacketSetCompression(threshold));
+
+        encoder.setCompressionThreshold(threshold);
+        channel.pipeline().get(VarIntFrameDecoder.class).setCompressionEnabled(true);
+        channel.pipeline().addBefore("decoder", "decompressor", new PacketDecompressor(threshold));
+    }
+
     public boolean isConnected() {
         return channel.isActive();
     }
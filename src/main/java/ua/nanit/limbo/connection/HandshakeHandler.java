@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.NonNull;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.packets.PacketHandshake;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.util.List;
+
+/**
+ * First handler of every connection. It reads the handshake itself and answers server list pings
+ * right away from the cached status responses, so ping connections never get the packet codecs
+ * and the ClientConnection. For login, the handshake is left in the buffer and passed
+ * to the full pipeline, which replaces this handler.
+ * If the status group is enabled, logging in channels are moved to the worker group first,
+ * and everything they send meanwhile is kept in the buffer
+ */
+final class HandshakeHandler extends ByteToMessageDecoder {
+
+    private static final int MAX_LENGTH_SIZE = 3;
+    private static final int HANDSHAKE_ID = 0x00;
+    private static final int STATUS_REQUEST_ID = 0x00;
+    private static final int STATUS_PING_ID = 0x01;
+    private static final int STATUS_PING_LENGTH = 9;
+
+    private final LimboServer server;
+    private final ClientChannelInitializer initializer;
+    private Version version;
+    private boolean statusSent;
+    private boolean moving;
+
+    HandshakeHandler(@NonNull LimboServer server, @NonNull ClientChannelInitializer initializer) {
+        this.server = server;
+        this.initializer = initializer;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (!ctx.channel().isActive()) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+
+        if (this.moving) {
+            return;
+        }
+
+        int frameStart = in.readerIndex();
+        int length = readFrameLength(in);
+
+        if (length == -1 || in.readableBytes() < length) {
+            in.readerIndex(frameStart);
+            return;
+        }
+
+        if (length == 0) {
+            return;
+        }
+
+        int contentStart = in.readerIndex();
+        int frameEnd = contentStart + length;
+
+        if (this.version == null) {
+            boolean upgraded = handleHandshake(ctx, in.slice(contentStart, length));
+
+            // Login handshake stays in the buffer for the full pipeline
+            in.readerIndex(upgraded || this.moving ? frameStart : frameEnd);
+            return;
+        }
+
+        int packetId = in.getByte(contentStart);
+
+        if (packetId == STATUS_REQUEST_ID && length == 1 && !this.statusSent) {
+            this.statusSent = true;
+            ByteBuf response = this.server.getPacketHandler().getStatusResponseCache().retainedFrame(this.version);
+
+            if (response != null) {
+                ctx.writeAndFlush(response, ctx.voidPromise());
+            } else {
+                ctx.close();
+            }
+        } else if (packetId == STATUS_PING_ID && length == STATUS_PING_LENGTH) {
+            // Pong is the same packet, so the whole frame is sent back as is
+            ctx.writeAndFlush(in.retainedSlice(frameStart, frameEnd - frameStart)).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            ctx.close();
+        }
+
+        in.readerIndex(frameEnd);
+    }
+
+    /**
+     * Handle the handshake packet
+     *
+     * @return True if the full pipeline was installed and this handler is removed
+     */
+    private boolean handleHandshake(ChannelHandlerContext ctx, ByteBuf content) {
+        ByteMessage msg = new ByteMessage(content);
+
+        if (msg.readVarInt() != HANDSHAKE_ID) {
+            ctx.close();
+            return false;
+        }
+
+        PacketHandshake handshake = new PacketHandshake();
+        handshake.decode(msg, Version.getMin());
+
+        if (handshake.getIntent() == PacketHandshake.Intent.STATUS) {
+            this.version = handshake.getVersion();
+            Log.debug("Pinged from %s [%s]", ctx.channel().remoteAddress(), this.version);
+            return false;
+        }
+
+        // Login, transfer and invalid intents are handled by the full pipeline
+        if (this.server.getStatusGroup() != null) {
+            moveToWorkerGroup(ctx.channel());
+            return false;
+        }
+
+        this.initializer.initLoginPipeline(ctx.channel());
+        ctx.pipeline().remove(this);
+        return true;
+    }
+
+    private void moveToWorkerGroup(Channel channel) {
+        this.moving = true;
+        channel.config().setAutoRead(false);
+
+        channel.deregister().addListener((ChannelFutureListener) deregistered -> {
+            if (!deregistered.isSuccess()) {
+                Log.debug("Cannot deregister %s: %s", channel.remoteAddress(), deregistered.cause());
+                channel.close();
+                return;
+            }
+
+            this.server.getWorkerGroup().register(channel).addListener((ChannelFutureListener) registered -> {
+                if (!registered.isSuccess()) {
+                    Log.debug("Cannot move %s to the worker group: %s", channel.remoteAddress(), registered.cause());
+                    channel.close();
+                    return;
+                }
+
+                // Timeout task is scheduled on the previous event loop, so it's replaced
+                channel.pipeline().replace("timeout", "timeout", this.initializer.createTimeoutHandler());
+                this.initializer.initLoginPipeline(channel);
+                // Removing this handler passes the buffered handshake and everything after it further
+                channel.pipeline().remove(this);
+                channel.config().setAutoRead(true);
+            });
+        });
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (ctx.channel().isActive()) {
+            Log.debug("Bad handshake from %s: %s", ctx.channel().remoteAddress(), cause.getMessage());
+            ctx.close();
+        }
+    }
+
+    /**
+     * Read the frame length VarInt
+     *
+     * @return Frame length, or -1 if the VarInt isn't received completely yet
+     */
+    private static int readFrameLength(ByteBuf in) {
+        int result = 0;
+
+        for (int i = 0; i < MAX_LENGTH_SIZE; i++) {
+            if (!in.isReadable()) {
+                return -1;
+            }
+
+            byte read = in.readByte();
+            result |= (read & 0x7F) << (i * 7);
+
+            if (read >= 0) {
+                return result;
+            }
+        }
+
+        throw new CorruptedFrameException("Frame length is longer than " + MAX_LENGTH_SIZE + " bytes");
+    }
+}
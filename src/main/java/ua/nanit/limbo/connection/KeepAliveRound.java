@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import lombok.Getter;
+import lombok.NonNull;
+import ua.nanit.limbo.protocol.PacketSnapshot;
+import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
+import ua.nanit.limbo.protocol.registry.Version;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One keep-alive id shared by all connections of a wheel tick.
+ * The packet is encoded only for the versions which are actually present in the tick,
+ * when the first connection of that version needs it
+ */
+final class KeepAliveRound {
+
+    private static final Version[] VERSIONS = Version.values();
+
+    @Getter
+    private final long id = ThreadLocalRandom.current().nextLong();
+    private final PacketSnapshot[] packets = new PacketSnapshot[VERSIONS.length];
+    private final int compressionThreshold;
+
+    KeepAliveRound(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @NonNull
+    PacketSnapshot getPacket(@NonNull Version version) {
+        PacketSnapshot packet = this.packets[version.ordinal()];
+
+        if (packet == null) {
+            packet = PacketSnapshot.of(new PacketKeepAlive(this.id), version, this.compressionThreshold);
+            this.packets[version.ordinal()] = packet;
+        }
+
+        return packet;
+    }
+
+    void release() {
+        for (PacketSnapshot packet : this.packets) {
+            if (packet != null) {
+                packet.release();
+            }
+        }
+    }
+}
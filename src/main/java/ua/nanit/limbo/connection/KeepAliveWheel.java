@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.NonNull;
+import ua.nanit.limbo.configuration.LimboConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel which sends keep-alive packets to the connections of a single event loop.
+ * Each event loop owns its own wheel, so keep-alives are written from the channel's thread
+ * without any task submission, and connections are spread over the slots,
+ * so every tick only touches a small part of them instead of all at once
+ */
+public final class KeepAliveWheel {
+
+    public static final long INTERVAL_MILLIS = 5000L;
+
+    private static final int SLOTS = 50;
+    private static final long TICK_MILLIS = INTERVAL_MILLIS / SLOTS;
+
+    private static final FastThreadLocal<KeepAliveWheel> WHEELS = new FastThreadLocal<>();
+
+    private final List<ClientConnection>[] slots;
+    private final boolean sharedKeepAlive;
+    private final int compressionThreshold;
+    private int cursor;
+
+    @SuppressWarnings("unchecked")
+    private KeepAliveWheel(@NonNull EventLoop eventLoop, boolean sharedKeepAlive, int compressionThreshold) {
+        this.sharedKeepAlive = sharedKeepAlive;
+        this.compressionThreshold = compressionThreshold;
+        this.slots = new List[SLOTS];
+
+        for (int i = 0; i < SLOTS; i++) {
+            this.slots[i] = new ArrayList<>();
+        }
+
+        eventLoop.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        List<ClientConnection> slot = this.slots[this.cursor];
+        this.cursor = (this.cursor + 1) % SLOTS;
+
+        if (slot.isEmpty()) {
+            return;
+        }
+
+        KeepAliveRound round = this.sharedKeepAlive ? new KeepAliveRound(this.compressionThreshold) : null;
+
+        try {
+            // Disconnected players are removed lazily, when their slot comes around
+            for (int i = slot.size() - 1; i >= 0; i--) {
+                ClientConnection connection = slot.get(i);
+
+                if (connection.isConnected()) {
+                    connection.sendKeepAlive(round);
+                    continue;
+                }
+
+                int last = slot.size() - 1;
+                slot.set(i, slot.get(last));
+                slot.remove(last);
+            }
+        } finally {
+            // Packets are written from this thread, so all of them already hold their own frames
+            if (round != null) {
+                round.release();
+            }
+        }
+    }
+
+    private void add(@NonNull ClientConnection connection) {
+        // Random slot keeps the load even when a lot of players join at the same moment
+        this.slots[ThreadLocalRandom.current().nextInt(SLOTS)].add(connection);
+    }
+
+    /**
+     * Start sending keep-alive packets to the connection every {@link #INTERVAL_MILLIS}
+     *
+     * @param connection Connection to schedule
+     */
+    public static void schedule(@NonNull ClientConnection connection) {
+        EventLoop eventLoop = connection.getChannel().eventLoop();
+
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(() -> schedule(connection));
+            return;
+        }
+
+        KeepAliveWheel wheel = WHEELS.get();
+        if (wheel == null) {
+            LimboConfig config = connection.getServer().getConfig();
+            wheel = new KeepAliveWheel(eventLoop, config.isSharedKeepAlive(), config.getCompressionThreshold());
+            WHEELS.set(wheel);
+        }
+
+        wheel.add(connection);
+    }
+}
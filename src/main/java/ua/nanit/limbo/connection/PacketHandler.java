@@ -18,12 +18,13 @@
 package ua.nanit.limbo.connection;
 
 import io.netty.buffer.Unpooled;
-import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import ua.nanit.limbo.LimboConstants;
 import ua.nanit.limbo.litebans.Ban;
+import ua.nanit.limbo.litebans.LiteBansIntegration;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.packets.PacketHandshake;
 import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
@@ -32,8 +33,7 @@ import ua.nanit.limbo.protocol.packets.login.PacketLoginAcknowledged;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginPluginRequest;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginPluginResponse;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginStart;
-import ua.nanit.limbo.protocol.packets.status.PacketStatusPing;
-import ua.nanit.limbo.protocol.packets.status.PacketStatusRequest;
+import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
 import ua.nanit.limbo.protocol.packets.status.PacketStatusResponse;
 import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
@@ -48,19 +48,22 @@ import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Predicate;
 
-@AllArgsConstructor
 public class PacketHandler {
 
     private final LimboServer server;
+    @Getter
+    private final StatusResponseCache statusResponseCache;
+
+    public PacketHandler(@NonNull LimboServer server) {
+        this.server = server;
+        this.statusResponseCache = new StatusResponseCache(server, this::getStatusProtocol,
+                (protocol) -> new PacketStatusResponse(createStatusResponse(protocol)));
+    }
 
     public void handle(@NonNull ClientConnection conn, @NonNull PacketHandshake packet) {
         conn.updateVersion(packet.getVersion());
 
         switch (packet.getIntent()) {
-            case STATUS -> {
-                conn.updateState(State.STATUS);
-                Log.debug("Pinged from %s [%s]", conn.getAddress(), conn.getClientVersion().toString());
-            }
             case LOGIN, TRANSFER -> {
                 conn.updateState(State.LOGIN);
 
@@ -84,25 +87,21 @@ public class PacketHandler {
                     }
                 }
             }
+            // Status is answered by HandshakeHandler, so it never gets here
             default -> conn.disconnect(Component.text("Invalid handshake intent!", NamedTextColor.RED));
         }
     }
 
-    public void handle(@NonNull ClientConnection conn, @NonNull PacketStatusRequest packet) {
-        int protocol;
+    private int getStatusProtocol(@NonNull Version clientVersion) {
         int staticProtocol = this.server.getConfig().getPingData().getProtocol();
 
         if (staticProtocol > 0) {
-            protocol = staticProtocol;
-        } else {
-            protocol = this.server.getConfig().getInfoForwarding().isNone()
-                    ? conn.getClientVersion().getProtocolNumber()
-                    : Version.getMax().getProtocolNumber();
+            return staticProtocol;
         }
 
-        PacketStatusResponse packetStatusResponse = new PacketStatusResponse();
-        packetStatusResponse.setResponse(createStatusResponse(protocol));
-        conn.sendPacket(packetStatusResponse);
+        return this.server.getConfig().getInfoForwarding().isNone()
+                ? clientVersion.getProtocolNumber()
+                : Version.getMax().getProtocolNumber();
     }
 
     @NonNull
@@ -121,10 +120,6 @@ public class PacketHandler {
         return response;
     }
 
-    public void handle(@NonNull ClientConnection conn, @NonNull PacketStatusPing packet) {
-        conn.sendPacketAndClose(packet);
-    }
-
     public void handle(@NonNull ClientConnection conn, @NonNull PacketLoginStart packet) {
         if (server.getConfig().getMaxPlayers() > 0 &&
                 server.getConnections().getCount() >= server.getConfig().getMaxPlayers()) {
@@ -138,21 +133,66 @@ public class PacketHandler {
             return;
         }
 
-        // LiteBans integration - check for bans
-        Optional<Ban> kicked = server
-                .getLiteBans()
-                .flatMap((liteBans) -> liteBans.getCurrentBan(packet.getUuid()));
+        // LiteBans integration - with modern forwarding, the address is known only after forwarding
+        LiteBansIntegration liteBans = server.getLiteBans().orElse(null);
+        if (liteBans != null && !server.getConfig().getInfoForwarding().isModern()
+                && kickIfIpBanned(conn, liteBans, packet.getUsername())) {
+            return;
+        }
+
+        // The login is paused until the ban is checked off the event loop
+        if (liteBans != null && packet.getUuid() != null) {
+            liteBans.getCurrentBan(packet.getUuid()).whenComplete((ban, error) ->
+                    conn.getChannel().eventLoop().execute(() -> onBanChecked(conn, packet, liteBans, ban, error)));
+            return;
+        }
+
+        continueLogin(conn, packet);
+    }
+
+    private void onBanChecked(ClientConnection conn,
+                              PacketLoginStart packet,
+                              LiteBansIntegration liteBans,
+                              Optional<Ban> ban,
+                              Throwable error) {
+        if (!conn.isConnected()) {
+            return;
+        }
 
-        // Ensure ban is not expired
-        if (kicked.isPresent() && !kicked.get().isExpired()) {
-            kicked.ifPresent((ban) -> {
-                Log.info("Disconnected %s (Banned: %s)", packet.getUsername(), ban.reason());
-                conn.disconnect(ban.constructKickMessage());
-            });
+        if (error != null) {
+            // Only the DENY fail policy gets here, the others answer with a fallback
+            conn.disconnect(Component.text("Can't check your ban status, please try again later", NamedTextColor.RED));
+            return;
+        }
 
+        if (ban.isPresent() && !ban.get().isExpired()) {
+            // Ensure ban is not expired
+            Log.info("Disconnected %s (Banned: %s)", packet.getUsername(), ban.get().reason());
+            // Still in the login state, so the prepared login disconnect packet is used
+            conn.sendPacketAndClose(liteBans.getKickMessage().toLoginDisconnect(ban.get(), conn.getClientVersion()));
             return;
         }
 
+        continueLogin(conn, packet);
+    }
+
+    /**
+     * Kick the player if their address is banned. Must be called in the login state
+     *
+     * @return True if the player was kicked
+     */
+    private boolean kickIfIpBanned(ClientConnection conn, LiteBansIntegration liteBans, String username) {
+        Optional<Ban> ban = liteBans.getIpBan(conn.getAddress());
+        if (ban.isEmpty()) {
+            return false;
+        }
+
+        Log.info("Disconnected %s (IP banned: %s)", username, ban.get().reason());
+        conn.sendPacketAndClose(liteBans.getKickMessage().toLoginDisconnect(ban.get(), conn.getClientVersion()));
+        return true;
+    }
+
+    private void continueLogin(ClientConnection conn, PacketLoginStart packet) {
         if (server.getConfig().getInfoForwarding().isModern()) {
             int loginId = ThreadLocalRandom.current().nextInt(0, Integer.MAX_VALUE);
             ByteMessage msg = new ByteMessage(Unpooled.buffer());
@@ -209,6 +249,11 @@ public class PacketHandler {
             gameProfile.setUuid(uuid);
             gameProfile.setUsername(userName);
 
+            LiteBansIntegration liteBans = server.getLiteBans().orElse(null);
+            if (liteBans != null && kickIfIpBanned(conn, liteBans, userName)) {
+                return;
+            }
+
             conn.fireLoginSuccess();
         }
     }
@@ -224,4 +269,8 @@ public class PacketHandler {
     public void handle(@NonNull ClientConnection conn, @NonNull PacketKnownPacks packet) {
         conn.onKnownPacksReceived();
     }
+
+    public void handle(@NonNull ClientConnection conn, @NonNull PacketKeepAlive packet) {
+        conn.onKeepAliveReceived(packet.getId());
+    }
 }
@@ -20,10 +20,10 @@ package ua.nanit.limbo.connection;
 import io.netty.buffer.ByteBufAllocator;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
-import org.checkerframework.checker.nullness.qual.Nullable;
 import ua.nanit.limbo.LimboConstants;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.MetadataWriter;
+import ua.nanit.limbo.protocol.PacketSequence;
 import ua.nanit.limbo.protocol.PacketSnapshot;
 import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
 import ua.nanit.limbo.protocol.packets.configuration.PacketKnownPacks;
@@ -31,6 +31,7 @@ import ua.nanit.limbo.protocol.packets.configuration.PacketRegistryData;
 import ua.nanit.limbo.protocol.packets.configuration.PacketUpdateTags;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginSuccess;
 import ua.nanit.limbo.protocol.packets.play.*;
+import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
 import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.server.data.Title;
@@ -70,7 +71,6 @@ public class PacketSnapshots {
     public static PacketSnapshot PACKET_TITLE_LEGACY_TIMES;
 
     public static PacketSnapshot PACKET_REGISTRY_DATA;
-    private static Map<Version, List<PacketSnapshot>> PACKETS_REGISTRY_DATA;
 
     public static PacketSnapshot PACKET_KNOWN_PACKS;
 
@@ -81,7 +81,14 @@ public class PacketSnapshots {
     public static List<PacketSnapshot> PACKETS_CHUNKS;
     public static PacketSnapshot PACKET_START_WAITING_CHUNKS;
 
+    // Whole sequences sent at once, they depend only on the client version and config
+    public static PacketSequence PACKETS_CONFIGURATION;
+    public static PacketSequence PACKETS_CONFIGURATION_REGISTRY;
+    public static PacketSequence PACKETS_SPAWN;
+
     public static void initPackets(@NonNull LimboServer server) {
+        int compressionThreshold = server.getConfig().getCompressionThreshold();
+
         String playerListName = server.getConfig().getPlayerListUsername();
         if (playerListName.length() > 16) {
             playerListName = playerListName.substring(0, 16);
@@ -142,21 +149,21 @@ public class PacketSnapshots {
         info.setGameMode(server.getConfig().getGameMode());
         info.setUuid(uuid);
 
-        PACKET_LOGIN_SUCCESS = PacketSnapshot.of(loginSuccess);
-        PACKET_JOIN_GAME = PacketSnapshot.of(packetLogin);
-        PACKET_PLAYER_POS_AND_LOOK_LEGACY = PacketSnapshot.of(positionAndLookLegacy);
-        PACKET_PLAYER_POS_AND_LOOK = PacketSnapshot.of(positionAndLook);
-        PACKET_SPAWN_POSITION = PacketSnapshot.of(packetSpawnPosition);
-        PACKET_PLAYER_ABILITIES = PacketSnapshot.of(playerAbilities);
-        PACKET_PLAYER_INFO = PacketSnapshot.of(info);
+        PACKET_LOGIN_SUCCESS = PacketSnapshot.of(loginSuccess, compressionThreshold);
+        PACKET_JOIN_GAME = PacketSnapshot.of(packetLogin, compressionThreshold);
+        PACKET_PLAYER_POS_AND_LOOK_LEGACY = PacketSnapshot.of(positionAndLookLegacy, compressionThreshold);
+        PACKET_PLAYER_POS_AND_LOOK = PacketSnapshot.of(positionAndLook, compressionThreshold);
+        PACKET_SPAWN_POSITION = PacketSnapshot.of(packetSpawnPosition, compressionThreshold);
+        PACKET_PLAYER_ABILITIES = PacketSnapshot.of(playerAbilities, compressionThreshold);
+        PACKET_PLAYER_INFO = PacketSnapshot.of(info, compressionThreshold);
 
-        PACKET_DECLARE_COMMANDS = PacketSnapshot.of(declareCommands);
+        PACKET_DECLARE_COMMANDS = PacketSnapshot.of(declareCommands, compressionThreshold);
 
         if (server.getConfig().isUseHeaderAndFooter()) {
             PacketPlayerListHeader header = new PacketPlayerListHeader();
             header.setHeader(server.getConfig().getPlayerListHeader());
             header.setFooter(server.getConfig().getPlayerListFooter());
-            PACKET_HEADER_AND_FOOTER = PacketSnapshot.of(header);
+            PACKET_HEADER_AND_FOOTER = PacketSnapshot.of(header, compressionThreshold);
         }
 
         if (server.getConfig().isUseBrandName()) {
@@ -169,7 +176,7 @@ public class PacketSnapshots {
             } finally {
                 byteMessage.release();
             }
-            PACKET_PLUGIN_MESSAGE = PacketSnapshot.of(pluginMessage);
+            PACKET_PLUGIN_MESSAGE = PacketSnapshot.of(pluginMessage, compressionThreshold);
         }
 
         if (server.getConfig().isUseJoinMessage()) {
@@ -177,14 +184,14 @@ public class PacketSnapshots {
             joinMessage.setMessage(server.getConfig().getJoinMessage());
             joinMessage.setPosition(PacketChatMessage.PositionLegacy.SYSTEM_MESSAGE);
             joinMessage.setSender(UUID.randomUUID());
-            PACKET_JOIN_MESSAGE = PacketSnapshot.of(joinMessage);
+            PACKET_JOIN_MESSAGE = PacketSnapshot.of(joinMessage, compressionThreshold);
         }
 
         if (server.getConfig().isUseBossBar()) {
             PacketBossBar bossBar = new PacketBossBar();
             bossBar.setBossBar(server.getConfig().getBossBar());
             bossBar.setUuid(UUID.randomUUID());
-            PACKET_BOSS_BAR = PacketSnapshot.of(bossBar);
+            PACKET_BOSS_BAR = PacketSnapshot.of(bossBar, compressionThreshold);
         }
 
         if (server.getConfig().isUseTitle()) {
@@ -213,13 +220,13 @@ public class PacketSnapshots {
             legacyTimes.setTitle(title);
             legacyTimes.setAction(PacketTitleLegacy.Action.SET_TIMES_AND_DISPLAY);
 
-            PACKET_TITLE_TITLE = PacketSnapshot.of(packetTitle);
-            PACKET_TITLE_SUBTITLE = PacketSnapshot.of(packetSubtitle);
-            PACKET_TITLE_TIMES = PacketSnapshot.of(packetTimes);
+            PACKET_TITLE_TITLE = PacketSnapshot.of(packetTitle, compressionThreshold);
+            PACKET_TITLE_SUBTITLE = PacketSnapshot.of(packetSubtitle, compressionThreshold);
+            PACKET_TITLE_TIMES = PacketSnapshot.of(packetTimes, compressionThreshold);
 
-            PACKET_TITLE_LEGACY_TITLE = PacketSnapshot.of(legacyTitle);
-            PACKET_TITLE_LEGACY_SUBTITLE = PacketSnapshot.of(legacySubtitle);
-            PACKET_TITLE_LEGACY_TIMES = PacketSnapshot.of(legacyTimes);
+            PACKET_TITLE_LEGACY_TITLE = PacketSnapshot.of(legacyTitle, compressionThreshold);
+            PACKET_TITLE_LEGACY_SUBTITLE = PacketSnapshot.of(legacySubtitle, compressionThreshold);
+            PACKET_TITLE_LEGACY_TIMES = PacketSnapshot.of(legacyTimes, compressionThreshold);
         }
 
         PACKET_KNOWN_PACKS = PacketSnapshot.of(PacketKnownPacks.class, (version) -> {
@@ -234,19 +241,19 @@ public class PacketSnapshots {
             ));
 
             return packetKnownPacks;
-        });
+        }, compressionThreshold);
 
         PACKET_UPDATE_TAGS = PacketSnapshot.of(PacketUpdateTags.class, (version) -> {
             PacketUpdateTags packetUpdateTags = new PacketUpdateTags();
             Map<String, Map<String, List<Integer>>> tags = dimensionRegistry.createUpdateTags(version);
             packetUpdateTags.setTags(tags);
             return packetUpdateTags;
-        });
+        }, compressionThreshold);
 
         PacketRegistryData packetRegistryData = new PacketRegistryData();
         packetRegistryData.setMetadataWriter((msg, version) -> msg.writeCompoundTag(dimensionRegistry.getCodec_1_20(), version));
 
-        PACKET_REGISTRY_DATA = PacketSnapshot.of(packetRegistryData);
+        PACKET_REGISTRY_DATA = PacketSnapshot.of(packetRegistryData, compressionThreshold);
 
         Map<Version, List<PacketSnapshot>> perVersionRegistries = new EnumMap<>(Version.class);
         for (Map.Entry<Version, List<MetadataWriter>> entry : dimensionRegistry.createPerVersionRegistries().entrySet()) {
@@ -258,19 +265,18 @@ public class PacketSnapshots {
                 PacketRegistryData registryData = new PacketRegistryData();
                 registryData.setMetadataWriter(writeableData);
 
-                packetSnapshots.add(PacketSnapshot.of(registryData, version));
+                packetSnapshots.add(PacketSnapshot.of(registryData, version, compressionThreshold));
             }
 
             perVersionRegistries.put(version, packetSnapshots);
         }
-        PACKETS_REGISTRY_DATA = perVersionRegistries;
 
-        PACKET_FINISH_CONFIGURATION = PacketSnapshot.of(new PacketFinishConfiguration());
+        PACKET_FINISH_CONFIGURATION = PacketSnapshot.of(new PacketFinishConfiguration(), compressionThreshold);
 
         PacketGameEvent packetGameEvent = new PacketGameEvent();
         packetGameEvent.setType((byte) 13); // Waiting for chunks type
         packetGameEvent.setValue(0);
-        PACKET_START_WAITING_CHUNKS = PacketSnapshot.of(packetGameEvent);
+        PACKET_START_WAITING_CHUNKS = PacketSnapshot.of(packetGameEvent, compressionThreshold);
 
         int chunkXOffset = 0; // Default x position is 0
         int chunkZOffset = 0; // Default z position is 0
@@ -285,14 +291,108 @@ public class PacketSnapshots {
                 packetChunkWithLight.setZ(chunkZ);
                 packetChunkWithLight.setDimension(versionedDimension);
 
-                chunks.add(PacketSnapshot.of(packetChunkWithLight));
+                chunks.add(PacketSnapshot.of(packetChunkWithLight, compressionThreshold));
             }
         }
         PACKETS_CHUNKS = chunks;
+
+        PACKETS_CONFIGURATION = PacketSequence.of("Configuration", State.CONFIGURATION, PacketSnapshots::createConfigurationPackets);
+        PACKETS_CONFIGURATION_REGISTRY = PacketSequence.of("ConfigurationRegistry", State.CONFIGURATION, (version) -> {
+            if (version.less(Version.V1_20_5)) {
+                return null;
+            }
+
+            List<PacketSnapshot> packets = new ArrayList<>();
+            List<PacketSnapshot> registry = perVersionRegistries.get(version);
+            if (registry != null) {
+                packets.addAll(registry);
+            }
+
+            packets.add(PACKET_UPDATE_TAGS);
+            packets.add(PACKET_FINISH_CONFIGURATION);
+            return packets;
+        });
+        PACKETS_SPAWN = PacketSequence.of("Spawn", State.PLAY, (version) -> createSpawnPackets(server, version));
     }
 
-    @Nullable
-    public static List<PacketSnapshot> getPacketsRegistryData(@NonNull Version version) {
-        return PACKETS_REGISTRY_DATA.get(version);
+    private static List<PacketSnapshot> createConfigurationPackets(@NonNull Version version) {
+        if (version.less(Version.V1_20_2)) {
+            return null;
+        }
+
+        List<PacketSnapshot> packets = new ArrayList<>();
+
+        if (PACKET_PLUGIN_MESSAGE != null) {
+            packets.add(PACKET_PLUGIN_MESSAGE);
+        }
+
+        if (version.moreOrEqual(Version.V1_20_5)) {
+            packets.add(PACKET_KNOWN_PACKS);
+            return packets;
+        }
+
+        packets.add(PACKET_REGISTRY_DATA);
+        packets.add(PACKET_FINISH_CONFIGURATION);
+        return packets;
+    }
+
+    private static List<PacketSnapshot> createSpawnPackets(@NonNull LimboServer server, @NonNull Version version) {
+        List<PacketSnapshot> packets = new ArrayList<>();
+
+        packets.add(PACKET_JOIN_GAME);
+        packets.add(PACKET_PLAYER_ABILITIES);
+
+        if (version.less(Version.V1_9)) {
+            packets.add(PACKET_PLAYER_POS_AND_LOOK_LEGACY);
+        } else {
+            packets.add(PACKET_PLAYER_POS_AND_LOOK);
+        }
+
+        if (version.moreOrEqual(Version.V1_19_3)) {
+            packets.add(PACKET_SPAWN_POSITION);
+        }
+
+        if (server.getConfig().isUsePlayerList() || version.equals(Version.V1_16_4)) {
+            packets.add(PACKET_PLAYER_INFO);
+        }
+
+        if (version.moreOrEqual(Version.V1_13)) {
+            packets.add(PACKET_DECLARE_COMMANDS);
+
+            if (PACKET_PLUGIN_MESSAGE != null) {
+                packets.add(PACKET_PLUGIN_MESSAGE);
+            }
+        }
+
+        if (PACKET_BOSS_BAR != null && version.moreOrEqual(Version.V1_9)) {
+            packets.add(PACKET_BOSS_BAR);
+        }
+
+        if (PACKET_JOIN_MESSAGE != null) {
+            packets.add(PACKET_JOIN_MESSAGE);
+        }
+
+        if (PACKET_TITLE_TITLE != null && version.moreOrEqual(Version.V1_8)) {
+            if (version.moreOrEqual(Version.V1_17)) {
+                packets.add(PACKET_TITLE_TITLE);
+                packets.add(PACKET_TITLE_SUBTITLE);
+                packets.add(PACKET_TITLE_TIMES);
+            } else {
+                packets.add(PACKET_TITLE_LEGACY_TITLE);
+                packets.add(PACKET_TITLE_LEGACY_SUBTITLE);
+                packets.add(PACKET_TITLE_LEGACY_TIMES);
+            }
+        }
+
+        if (PACKET_HEADER_AND_FOOTER != null && version.moreOrEqual(Version.V1_8)) {
+            packets.add(PACKET_HEADER_AND_FOOTER);
+        }
+
+        if (version.moreOrEqual(Version.V1_20_3)) {
+            packets.add(PACKET_START_WAITING_CHUNKS);
+            packets.addAll(PACKETS_CHUNKS);
+        }
+
+        return packets;
     }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import ua.nanit.limbo.protocol.PacketOut;
+import ua.nanit.limbo.protocol.PacketSnapshot;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.util.ComponentUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Status responses encoded into snapshots. A response depends on the client version only through
+ * the reported protocol and the JSON serializer, so all versions which share both share one snapshot,
+ * and all event loops share the same few snapshots. A snapshot is rebuilt only when the online count
+ * has changed, and not earlier than the configured interval after it was built
+ */
+public final class StatusResponseCache {
+
+    private static final Version[] VERSIONS = Version.values();
+
+    private final LimboServer server;
+    private final IntFunction<PacketOut> responseFunction;
+    private final long intervalNanos;
+    private final Entry[] entries = new Entry[VERSIONS.length];
+
+    /**
+     * @param server           Limbo server
+     * @param protocolFunction Function which gives the protocol reported to the client version
+     * @param responseFunction Function which creates the response with the given reported protocol
+     */
+    public StatusResponseCache(@NonNull LimboServer server,
+                               @NonNull ToIntFunction<Version> protocolFunction,
+                               @NonNull IntFunction<PacketOut> responseFunction) {
+        this.server = server;
+        this.responseFunction = responseFunction;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(server.getConfig().getPingData().getCacheInterval());
+
+        Map<Key, Entry> unique = new HashMap<>();
+        for (Version version : VERSIONS) {
+            Key key = new Key(protocolFunction.applyAsInt(version), ComponentUtils.getJsonChatSerializer(version));
+            // The first version of the key encodes the response for all of them
+            this.entries[version.ordinal()] = unique.computeIfAbsent(key, k -> new Entry(version, k.protocol()));
+        }
+    }
+
+    /**
+     * Get the status response frame for the client version. Can be called from any thread
+     *
+     * @param version Client version
+     * @return Retained duplicate of the frame which must be written or released by the caller,
+     * or null if the response can't be encoded for this version
+     */
+    @Nullable
+    public ByteBuf retainedFrame(@NonNull Version version) {
+        Entry entry = this.entries[version.ordinal()];
+        int online = this.server.getConnections().getCount();
+        long now = System.nanoTime();
+
+        // Held only to compare the count and retain the frame, since a rebuild releases the previous one
+        synchronized (entry) {
+            if (entry.snapshot == null || (entry.online != online && now - entry.createdAt >= this.intervalNanos)) {
+                if (entry.snapshot != null) {
+                    // Responses which are already written keep their own reference
+                    entry.snapshot.release();
+                }
+
+                entry.snapshot = PacketSnapshot.of(this.responseFunction.apply(entry.protocol), entry.version, -1);
+                entry.online = online;
+                entry.createdAt = now;
+            }
+
+            return entry.snapshot.retainedFrame(State.STATUS, entry.version, false);
+        }
+    }
+
+    private record Key(int protocol, GsonComponentSerializer serializer) {
+    }
+
+    private static final class Entry {
+
+        private final Version version;
+        private final int protocol;
+        private PacketSnapshot snapshot;
+        private int online;
+        private long createdAt;
+
+        Entry(Version version, int protocol) {
+            this.version = version;
+            this.protocol = protocol;
+        }
+    }
+}
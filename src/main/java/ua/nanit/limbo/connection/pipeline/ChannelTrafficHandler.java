@@ -23,47 +23,69 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.NonNull;
 import org.jetbrains.annotations.NotNull;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.util.CoarseClock;
 
 import java.util.Arrays;
 
+/**
+ * Closes connections which send too large packets, or too many packets or bytes over the interval.
+ * The interval is split into buckets, each one is a single long in a flat array, so a connection costs
+ * about {@code 8 * buckets + 100} bytes, e.g. 1.3 KB for 150 buckets or 360 bytes for 32 buckets.
+ * Fewer buckets make the window slide in coarser steps
+ */
 public class ChannelTrafficHandler extends ChannelInboundHandlerAdapter {
 
     private final int maxPacketSize;
-    private final double maxPacketRate;
-    private final double maxPacketBytesRate;
+    private final double maxPackets;
+    private final double maxBytes;
     private final PacketBucket packetBucket;
 
-    public ChannelTrafficHandler(int maxPacketSize, double interval, double maxPacketRate, double maxPacketBytesRate) {
+    public ChannelTrafficHandler(int maxPacketSize, double interval, int buckets, double maxPacketRate, double maxPacketBytesRate) {
         this.maxPacketSize = maxPacketSize;
-        this.maxPacketRate = maxPacketRate;
-        this.maxPacketBytesRate = maxPacketBytesRate;
-        this.packetBucket = (interval > 0.0 && (maxPacketRate > 0.0 || maxPacketBytesRate > 0.0)) ? new PacketBucket(interval * 1000.0, 150) : null;
+        // Rates are compared as totals over the interval, so the check needs no division
+        this.maxPackets = maxPacketRate > 0.0 ? maxPacketRate * interval : -1.0;
+        this.maxBytes = maxPacketBytesRate > 0.0 ? maxPacketBytesRate * interval : -1.0;
+        this.packetBucket = (interval > 0.0 && (maxPacketRate > 0.0 || maxPacketBytesRate > 0.0))
+                ? new PacketBucket((long) (interval * 1000.0), Math.max(1, buckets)) : null;
     }
 
     @Override
     public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) throws Exception {
-        if (msg instanceof ByteBuf in) {
-            int bytes = in.readableBytes();
+        if (msg instanceof ByteBuf in && !recordPacket(ctx, in.readableBytes())) {
+            in.release();
+            return;
+        }
 
-            if (maxPacketSize > 0 && bytes > maxPacketSize) {
-                closeConnection(ctx, "Closed %s due to large packet size (%d bytes)", ctx.channel().remoteAddress(), bytes);
-                return;
-            }
+        super.channelRead(ctx, msg);
+    }
 
-            if (packetBucket != null) {
-                packetBucket.recordPacket(1, bytes);
-                if (maxPacketRate > 0.0 && packetBucket.getCurrentPacketRate() > maxPacketRate) {
-                    closeConnection(ctx, "Closed %s due to many packets sent (%d in the last %.1f seconds)", ctx.channel().remoteAddress(), packetBucket.sumPackets, (packetBucket.intervalTime / 1000.0));
-                    return;
-                }
-                if (maxPacketBytesRate > 0.0 && packetBucket.getCurrentPacketBytesRate() > maxPacketBytesRate) {
-                    closeConnection(ctx, "Closed %s due to many bytes sent (%d in the last %.1f seconds)", ctx.channel().remoteAddress(), packetBucket.sumBytes, (packetBucket.intervalTime / 1000.0));
-                    return;
-                }
+    /**
+     * Account a received packet and close the connection if it exceeds the limits.
+     * Also used for packets which are skipped before reaching this handler
+     *
+     * @param ctx   Context of any handler in the channel pipeline
+     * @param bytes Packet size
+     * @return True if the packet is within the limits, false if the connection is closed
+     */
+    public boolean recordPacket(@NonNull ChannelHandlerContext ctx, int bytes) {
+        if (maxPacketSize > 0 && bytes > maxPacketSize) {
+            closeConnection(ctx, "Closed %s due to large packet size (%d bytes)", ctx.channel().remoteAddress(), bytes);
+            return false;
+        }
+
+        if (packetBucket != null) {
+            packetBucket.recordPacket(bytes);
+            if (maxPackets > 0.0 && packetBucket.sumPackets > maxPackets) {
+                closeConnection(ctx, "Closed %s due to many packets sent (%d in the last %.1f seconds)", ctx.channel().remoteAddress(), packetBucket.sumPackets, (packetBucket.intervalTime / 1000.0));
+                return false;
+            }
+            if (maxBytes > 0.0 && packetBucket.sumBytes > maxBytes) {
+                closeConnection(ctx, "Closed %s due to many bytes sent (%d in the last %.1f seconds)", ctx.channel().remoteAddress(), packetBucket.sumBytes, (packetBucket.intervalTime / 1000.0));
+                return false;
             }
         }
 
-        super.channelRead(ctx, msg);
+        return true;
     }
 
     private void closeConnection(@NonNull ChannelHandlerContext ctx,
@@ -73,82 +95,51 @@ public class ChannelTrafficHandler extends ChannelInboundHandlerAdapter {
         Log.info(reason, args);
     }
 
+    /**
+     * Sliding window of packet and byte counts. Each bucket packs the packet count into the high
+     * 32 bits and the byte count into the low 32 bits of a long, and buckets are addressed
+     * by the absolute tick number of the coarse clock modulo the bucket count
+     */
     private static class PacketBucket {
-        private static final double NANOSECONDS_TO_MILLISECONDS = 1.0e-6;
-        private static final int MILLISECONDS_TO_SECONDS = 1000;
-
-        private static final int PACKETS_IDX = 0;
-        private static final int BYTES_IDX = 1;
 
-        private final double intervalTime;
-        private final double intervalResolution;
-        private final int[][] data;
-        private int newestData;
-        private double lastBucketTime;
+        private final long intervalTime;
+        private final long resolution;
+        private final long[] data;
+        private long newestTick;
         private int sumPackets;
         private int sumBytes;
 
-        public PacketBucket(final double intervalTime, final int totalBuckets) {
+        PacketBucket(long intervalTime, int totalBuckets) {
             this.intervalTime = intervalTime;
-            this.intervalResolution = intervalTime / totalBuckets;
-            this.data = new int[totalBuckets][2]; // 0: packets, 1: bytes
+            this.resolution = Math.max(1, intervalTime / totalBuckets);
+            this.data = new long[totalBuckets];
+            this.newestTick = CoarseClock.millis() / this.resolution;
         }
 
-        public void recordPacket(final int packets, final int bytes) {
-            double timeMs = System.nanoTime() * NANOSECONDS_TO_MILLISECONDS;
-            double timeDelta = timeMs - this.lastBucketTime;
-
-            if (timeDelta < 0.0) {
-                timeDelta = 0.0;
-            }
-
-            if (timeDelta < this.intervalResolution) {
-                this.data[this.newestData][PACKETS_IDX] += packets;
-                this.data[this.newestData][BYTES_IDX] += bytes;
-                this.sumPackets += packets;
-                this.sumBytes += bytes;
-                return;
-            }
-
-            int bucketsToMove = (int) (timeDelta / this.intervalResolution);
-            double nextBucketTime = this.lastBucketTime + bucketsToMove * this.intervalResolution;
-
-            if (bucketsToMove >= this.data.length) {
-                for (int[] datum : this.data) {
-                    Arrays.fill(datum, 0);
+        void recordPacket(int bytes) {
+            long tick = CoarseClock.millis() / this.resolution;
+            long passed = tick - this.newestTick;
+
+            if (passed >= this.data.length) {
+                Arrays.fill(this.data, 0L);
+                this.sumPackets = 0;
+                this.sumBytes = 0;
+                this.newestTick = tick;
+            } else if (passed > 0) {
+                // Clear the buckets which left the window
+                for (long i = this.newestTick + 1; i <= tick; i++) {
+                    int index = (int) (i % this.data.length);
+                    long bucket = this.data[index];
+                    this.sumPackets -= (int) (bucket >>> 32);
+                    this.sumBytes -= (int) bucket;
+                    this.data[index] = 0L;
                 }
-                this.data[0][PACKETS_IDX] = packets;
-                this.data[0][BYTES_IDX] = bytes;
-                this.sumPackets = packets;
-                this.sumBytes = bytes;
-                this.newestData = 0;
-                this.lastBucketTime = timeMs;
-                return;
+                this.newestTick = tick;
             }
 
-            for (int i = 1; i < bucketsToMove; ++i) {
-                int index = (this.newestData + i) % this.data.length;
-                this.sumPackets -= this.data[index][PACKETS_IDX];
-                this.sumBytes -= this.data[index][BYTES_IDX];
-                this.data[index][PACKETS_IDX] = 0;
-                this.data[index][BYTES_IDX] = 0;
-            }
-
-            int newestDataIndex = (this.newestData + bucketsToMove) % this.data.length;
-            this.sumPackets += packets - this.data[newestDataIndex][PACKETS_IDX];
-            this.sumBytes += bytes - this.data[newestDataIndex][BYTES_IDX];
-            this.data[newestDataIndex][PACKETS_IDX] = packets;
-            this.data[newestDataIndex][BYTES_IDX] = bytes;
-            this.newestData = newestDataIndex;
-            this.lastBucketTime = nextBucketTime;
-        }
-
-        public double getCurrentPacketRate() {
-            return this.sumPackets / (this.intervalTime / MILLISECONDS_TO_SECONDS);
-        }
-
-        public double getCurrentPacketBytesRate() {
-            return this.sumBytes / (this.intervalTime / MILLISECONDS_TO_SECONDS);
+            this.data[(int) (this.newestTick % this.data.length)] += (1L << 32) + bytes;
+            this.sumPackets++;
+            this.sumBytes += bytes;
         }
     }
 }
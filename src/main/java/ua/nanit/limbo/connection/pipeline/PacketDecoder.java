@@ -51,11 +51,15 @@ public class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
         int packetId = msg.readVarInt();
         Packet packet = mappings.getPacket(packetId);
         if (packet == null) {
-            Log.debug("Undefined incoming packet: " + PacketUtils.toPacketId(packetId) + " [" + version + "|" + state + "]");
+            if (Log.isDebug()) {
+                Log.debug("Undefined incoming packet: %s [%s|%s]", PacketUtils.toPacketId(packetId), version, state);
+            }
             return;
         }
 
-        Log.debug("Received packet %s(%s) [%s|%s] (%d bytes)", packet.toString(), PacketUtils.toPacketId(packetId), version, state, msg.readableBytes());
+        if (Log.isDebug()) {
+            Log.debug("Received packet %s(%s) [%s|%s] (%d bytes)", packet.toString(), PacketUtils.toPacketId(packetId), version, state, msg.readableBytes());
+        }
 
         try {
             packet.decode(msg, version);
@@ -70,6 +74,16 @@ public class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
         ctx.fireChannelRead(packet);
     }
 
+    /**
+     * Check whether a packet with this id is decoded in the current state
+     *
+     * @param packetId Packet id
+     * @return True if the packet is registered, false if it would be dropped anyway
+     */
+    public boolean isHandled(int packetId) {
+        return mappings != null && mappings.hasPacket(packetId);
+    }
+
     public void updateVersion(@NonNull Version version) {
         this.version = version;
     }
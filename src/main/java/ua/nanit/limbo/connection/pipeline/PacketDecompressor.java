@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ua.nanit.limbo.connection.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.util.CompressionUtils;
+
+import java.util.List;
+
+public class PacketDecompressor extends MessageToMessageDecoder<ByteBuf> {
+
+    private static final int MAXIMUM_UNCOMPRESSED_SIZE = 8 * 1024 * 1024; // Same limit as vanilla
+
+    private final int threshold;
+
+    public PacketDecompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+        int uncompressedSize = new ByteMessage(buf).readVarInt();
+
+        if (uncompressedSize == 0) {
+            out.add(buf.retain());
+            return;
+        }
+
+        if (uncompressedSize < threshold) {
+            throw new DecoderException("Badly compressed packet: size " + uncompressedSize + " is below threshold " + threshold);
+        }
+
+        if (uncompressedSize > MAXIMUM_UNCOMPRESSED_SIZE) {
+            throw new DecoderException("Badly compressed packet: size " + uncompressedSize + " is larger than maximum " + MAXIMUM_UNCOMPRESSED_SIZE);
+        }
+
+        ByteBuf uncompressed = ctx.alloc().buffer(uncompressedSize);
+        try {
+            CompressionUtils.decompress(buf, uncompressed, uncompressedSize);
+            out.add(uncompressed);
+        } catch (Exception e) {
+            uncompressed.release();
+            throw e;
+        }
+    }
+}
@@ -18,22 +18,32 @@
 package ua.nanit.limbo.connection.pipeline;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.NonNull;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.Packet;
+import ua.nanit.limbo.protocol.PacketSequence;
 import ua.nanit.limbo.protocol.PacketSnapshot;
 import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.util.CompressionUtils;
 import ua.nanit.limbo.util.PacketUtils;
 
 public class PacketEncoder extends MessageToByteEncoder<Packet> {
 
+    // The client reads the frame length as VarInt of at most 3 bytes
+    private static final int MAX_LENGTH_SIZE = 3;
+    private static final int MAX_FRAME_LENGTH = (1 << (7 * MAX_LENGTH_SIZE)) - 1;
+
     private State state;
     private State.PacketRegistry registry;
     private Version version;
+    private int compressionThreshold = -1;
 
     public PacketEncoder() {
         updateVersion(Version.getMin());
@@ -42,36 +52,135 @@ public class PacketEncoder extends MessageToByteEncoder<Packet> {
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf out) throws Exception {
-        if (registry == null) return;
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof PacketSnapshot packetSnapshot) {
+            writeSnapshot(ctx, packetSnapshot, promise);
+            return;
+        }
 
-        ByteMessage msg = new ByteMessage(out);
-        int packetId;
+        if (msg instanceof PacketSequence packetSequence) {
+            writeSequence(ctx, packetSequence, promise);
+            return;
+        }
+
+        super.write(ctx, msg, promise);
+    }
 
-        if (packet instanceof PacketSnapshot packetSnapshot) {
-            packetId = registry.getPacketId(packetSnapshot.getPacketClass());
-        } else {
-            packetId = registry.getPacketId(packet.getClass());
+    private void writeSnapshot(ChannelHandlerContext ctx, PacketSnapshot packet, ChannelPromise promise) {
+        // Snapshots are already framed, so they bypass the encoding
+        ByteBuf frame = packet.retainedFrame(state, version, isCompressionEnabled());
+
+        if (frame == null) {
+            Log.warning("Undefined packet class: %s [%s|%s]", packet.getPacketClass().getName(), version, state);
+            ctx.write(Unpooled.EMPTY_BUFFER, promise);
+            return;
         }
 
+        if (Log.isDebug()) {
+            Log.debug("Sending %s(%s) [%s|%s] packet (%d bytes)", packet.toString(), PacketUtils.toPacketId(registry.getPacketId(packet.getPacketClass())), version, state, frame.readableBytes());
+        }
+
+        ctx.write(frame, promise);
+    }
+
+    private void writeSequence(ChannelHandlerContext ctx, PacketSequence sequence, ChannelPromise promise) {
+        ByteBuf frame = sequence.getState() == state ? sequence.retainedFrame(version, isCompressionEnabled()) : null;
+
+        if (frame == null) {
+            Log.warning("Undefined packet sequence: %s [%s|%s]", sequence.toString(), version, state);
+            ctx.write(Unpooled.EMPTY_BUFFER, promise);
+            return;
+        }
+
+        if (Log.isDebug()) {
+            Log.debug("Sending %s sequence [%s|%s] (%d bytes)", sequence.toString(), version, state, frame.readableBytes());
+        }
+
+        ctx.write(frame, promise);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf out) throws Exception {
+        if (registry == null) return;
+
+        int packetId = registry.getPacketId(packet.getClass());
+
         if (packetId == -1) {
-            Log.warning("Undefined packet class: %s(%s) [%s|%s] (%d bytes)", packet.getClass().getName(), PacketUtils.toPacketId(packetId), version, state, msg.readableBytes());
+            Log.warning("Undefined packet class: %s(%s) [%s|%s]", packet.getClass().getName(), PacketUtils.toPacketId(packetId), version, state);
             return;
         }
 
-        msg.writeVarInt(packetId);
+        // The length isn't known yet, so the space for headers is reserved and filled in after encoding.
+        // With compression, one more byte is reserved for the zero data length of small packets
+        int frameStart = out.writerIndex();
+        int dataStart = frameStart + MAX_LENGTH_SIZE + (isCompressionEnabled() ? 1 : 0);
+        out.ensureWritable(dataStart - frameStart);
+        out.writerIndex(dataStart);
+
+        ByteMessage msg = new ByteMessage(out);
 
         try {
+            msg.writeVarInt(packetId);
             packet.encode(msg, version);
 
+            int dataLength = msg.writerIndex() - dataStart;
+
             if (Log.isDebug()) {
-                Log.debug("Sending %s(%s) [%s|%s] packet (%d bytes)", packet.toString(), PacketUtils.toPacketId(packetId), version, state, msg.readableBytes());
+                Log.debug("Sending %s(%s) [%s|%s] packet (%d bytes)", packet.toString(), PacketUtils.toPacketId(packetId), version, state, dataLength);
+            }
+
+            if (!isCompressionEnabled()) {
+                writeLength(msg, dataStart);
+            } else if (dataLength < compressionThreshold) {
+                msg.setByte(dataStart - 1, 0);
+                writeLength(msg, dataStart - 1);
+            } else {
+                compress(ctx, msg, frameStart + MAX_LENGTH_SIZE, dataLength);
             }
         } catch (Exception e) {
+            // Don't send a partially encoded packet
+            out.setIndex(frameStart, frameStart);
             Log.error("Cannot encode packet %s(%s) [%s|%s]: %s", packet.toString(), PacketUtils.toPacketId(packetId), version, state, e.getMessage());
         }
     }
 
+    private void compress(ChannelHandlerContext ctx, ByteMessage msg, int contentStart, int dataLength) {
+        ByteBuf compressed = ctx.alloc().buffer();
+
+        try {
+            msg.readerIndex(msg.writerIndex() - dataLength);
+            CompressionUtils.compress(msg, compressed);
+
+            // Compressed data replaces the raw data, which starts right after the reserved space
+            msg.setIndex(contentStart, contentStart);
+            msg.writeVarInt(dataLength);
+            msg.writeBytes(compressed);
+            writeLength(msg, contentStart);
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * Write the frame length right before the frame content and move the reader index to it
+     *
+     * @param msg          Buffer with the reserved space before the content
+     * @param contentStart Index of the first content byte
+     */
+    private static void writeLength(ByteMessage msg, int contentStart) {
+        int contentEnd = msg.writerIndex();
+        int length = contentEnd - contentStart;
+
+        if (length > MAX_FRAME_LENGTH) {
+            throw new EncoderException("Packet is too large: " + length + " bytes");
+        }
+
+        int frameStart = contentStart - ByteMessage.getVarIntSize(length);
+        msg.setIndex(frameStart, frameStart);
+        msg.writeVarInt(length);
+        msg.setIndex(frameStart, contentEnd);
+    }
+
     public void updateVersion(@NonNull Version version) {
         this.version = version;
     }
@@ -80,4 +189,12 @@ public class PacketEncoder extends MessageToByteEncoder<Packet> {
         this.state = state;
         this.registry = state.clientBound.getRegistry(version);
     }
+
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionThreshold >= 0;
+    }
 }
@@ -22,11 +22,22 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.DecoderException;
 import io.netty.util.ByteProcessor;
+import lombok.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.List;
 
 public class VarIntFrameDecoder extends ByteToMessageDecoder {
 
+    private final PacketDecoder decoder;
+    private final @Nullable ChannelTrafficHandler trafficHandler;
+    private boolean compressionEnabled;
+
+    public VarIntFrameDecoder(@NonNull PacketDecoder decoder, @Nullable ChannelTrafficHandler trafficHandler) {
+        this.decoder = decoder;
+        this.trafficHandler = trafficHandler;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
         if (!ctx.channel().isActive()) {
@@ -59,9 +70,52 @@ public class VarIntFrameDecoder extends ByteToMessageDecoder {
 
         if (in.readableBytes() < length) {
             in.resetReaderIndex();
-        } else {
+        } else if (isHandled(in, length)) {
             out.add(in.readRetainedSlice(length));
+        } else {
+            // Packets which the decoder would drop are skipped without creating a slice,
+            // but they still count towards the traffic limits
+            in.skipBytes(length);
+
+            if (trafficHandler != null && !trafficHandler.recordPacket(ctx, length)) {
+                in.clear();
+            }
+        }
+    }
+
+    private boolean isHandled(ByteBuf in, int length) {
+        int index = in.readerIndex();
+        int end = index + length;
+
+        if (compressionEnabled) {
+            // Compressed packets are checked by the decoder after decompression,
+            // only packets below the threshold (data length 0) can be checked here
+            if (in.getByte(index) != 0) {
+                return true;
+            }
+            index++;
+        }
+
+        int packetId = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (index >= end || shift >= 35) {
+                // Let the decoder report the malformed packet
+                return true;
+            }
+
+            byte read = in.getByte(index++);
+            packetId |= (read & 0x7F) << shift;
+
+            if (read >= 0) {
+                break;
+            }
         }
+
+        return decoder.isHandled(packetId);
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
     }
 
     private static int readRawVarInt21(ByteBuf byteBuf) {
@@ -1,12 +1,6 @@
 package ua.nanit.limbo.litebans;
 
-import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.minimessage.MiniMessage;
-import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
-import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.jetbrains.annotations.NotNull;
-import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.util.DurationFormatter;
 
 import java.time.Duration;
@@ -15,6 +9,7 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 public record Ban(
+        long id,
         String bannedByName,
         String reason,
         long start,
@@ -24,11 +19,9 @@ public record Ban(
 ) {
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
 
-    private static final MiniMessage MINI_MESSAGE = MiniMessage.miniMessage();
-    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacyAmpersand();
-
     public boolean isPermanent() {
-        return end == 0;
+        // LiteBans stores permanent bans with until = -1, older rows may have 0
+        return end <= 0;
     }
 
     public Instant getExpiry() {
@@ -56,35 +49,17 @@ public record Ban(
         return !isActive || getRemainingDuration().isZero();
     }
 
-    public @NotNull Component constructKickMessage() {
-        String durationString;
+    /**
+     * @return Text shown as the ban duration, which changes over time
+     */
+    public @NotNull String getDurationText() {
         if (isPermanent()) {
-            durationString = "Never (Permanent)";
-        } else {
-            Instant expiry = getExpiry();
-            durationString = DurationFormatter.formatDuration(getRemainingDuration())
-                    + " ("
-                    + DATE_TIME_FORMATTER.format(expiry.atZone(ZoneId.systemDefault()))
-                    + ")";
+            return "Never (Permanent)";
         }
 
-        String normalizedReason = reason()
-                .replace("\\r\\n", "\n")
-                .replace("\\n", "\n")
-                .replace("\r\n", "\n")
-                .replace("\r", "\n");
-
-        Component reasonComponent = LEGACY.deserialize(normalizedReason);
-        String template = LimboServer.getInstance()
-                .getConfig()
-                .getLiteBansKickMessageFormat();
-
-        return MINI_MESSAGE.deserialize(
-                template,
-                TagResolver.builder()
-                        .resolver(Placeholder.component("reason", reasonComponent))
-                        .resolver(Placeholder.unparsed("duration", durationString))
-                        .build()
-        );
+        return DurationFormatter.formatDuration(getRemainingDuration())
+                + " ("
+                + DATE_TIME_FORMATTER.format(getExpiry().atZone(ZoneId.systemDefault()))
+                + ")";
     }
 }
@@ -0,0 +1,70 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Immutable Bloom filter of banned UUIDs. If it doesn't contain a UUID, the player is
+ * definitely not banned, at least as of the time the filter was built
+ */
+final class BanBloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param uniqueIds         Banned UUIDs as pairs of most and least significant bits
+     * @param count             Count of UUIDs in the array
+     * @param falsePositiveRate Desired probability to report a not banned UUID as possibly banned
+     */
+    BanBloomFilter(long @NotNull [] uniqueIds, int count, double falsePositiveRate) {
+        int expected = Math.max(count, 1);
+        long optimalBits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (LN2 * LN2));
+
+        this.bits = new long[(int) Math.max(1, (optimalBits + 63) >>> 6)];
+        this.bitCount = this.bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / expected * LN2));
+
+        for (int i = 0; i < count; i++) {
+            add(uniqueIds[i * 2], uniqueIds[i * 2 + 1]);
+        }
+    }
+
+    boolean mightContain(@NotNull UUID uniqueId) {
+        long hash1 = mix(uniqueId.getMostSignificantBits());
+        long hash2 = mix(uniqueId.getLeastSignificantBits()) | 1;
+
+        // Kirsch-Mitzenmacher double hashing instead of k independent hashes
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void add(long mostBits, long leastBits) {
+        long hash1 = mix(mostBits);
+        long hash2 = mix(leastBits) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,158 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.server.Log;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polls the ban table for bans added after the highest known id and bans removed after
+ * the latest known removal, and passes the rows to all listeners. The UUID index, the IP index
+ * and the enforcer share one poller, so each change is read from the database only once.
+ * All methods except the watermark setup during loading are called from a single sync thread
+ */
+final class BanChangePoller {
+
+    private static final String WATERMARKS_SQL = "SELECT MAX(id), MAX(removed_by_date) FROM litebans_bans";
+    private static final String REMOVED_BANS_SQL = "SELECT id, uuid, ipban, removed_by_date"
+            + " FROM litebans_bans WHERE removed_by_date >= ?";
+
+    private final ConnectionPool pool;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // -1 until a listener has loaded its bans, or the first poll has read the current watermarks
+    private long lastId = -1;
+    private long lastRemoved = -1;
+
+    BanChangePoller(@NotNull ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    void addListener(@NotNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    long getLastRemoved() {
+        return lastRemoved;
+    }
+
+    /**
+     * Make polling start not later than the given watermarks. With several listeners, the earliest
+     * watermarks win, and the others get some changes again, which they apply idempotently
+     */
+    synchronized void startAt(long lastId, long lastRemoved) {
+        if (this.lastId == -1 || lastId < this.lastId) {
+            this.lastId = lastId;
+        }
+        if (this.lastRemoved == -1 || lastRemoved < this.lastRemoved) {
+            this.lastRemoved = lastRemoved;
+        }
+    }
+
+    /**
+     * Read the current watermarks and start polling from them. Called before loading all active
+     * bans on the same connection, so no change after the load is missed
+     *
+     * @return The highest current ban id
+     */
+    long startAtCurrent(@NotNull ConnectionPool.PooledConnection connection) throws SQLException {
+        try (ResultSet rs = connection.prepare(WATERMARKS_SQL).executeQuery()) {
+            rs.next();
+            long id = rs.getLong(1);
+            Timestamp removed = rs.getTimestamp(2);
+            startAt(id, removed != null ? removed.getTime() : 0);
+            return id;
+        }
+    }
+
+    /**
+     * Pass the changes since the last poll to the listeners. Each listener finishes the poll
+     * even if the database fails, so expired bans are still dropped
+     */
+    void poll() {
+        try {
+            synchronized (this) {
+                if (lastId == -1) {
+                    // Nothing was loaded, so only the changes from now on matter
+                    pool.execute(this::startAtCurrent);
+                } else {
+                    pollChanges();
+                }
+            }
+        } catch (Exception error) {
+            // Changes since the watermarks are polled again next time
+            Log.warning("Can't poll LiteBans for ban changes: %s", error);
+        }
+
+        for (Listener listener : listeners) {
+            try {
+                listener.afterPoll();
+            } catch (Exception error) {
+                Log.warning("Can't apply LiteBans ban changes: %s", error);
+            }
+        }
+    }
+
+    private void pollChanges() throws SQLException {
+        pool.execute(connection -> {
+            PreparedStatement added = connection.prepare(BanRows.NEW_BANS_SQL);
+            added.setFetchSize(BanRows.FETCH_SIZE);
+            added.setLong(1, lastId);
+
+            try (ResultSet rs = added.executeQuery()) {
+                while (rs.next()) {
+                    lastId = Math.max(lastId, rs.getLong("id"));
+                    for (Listener listener : listeners) {
+                        listener.onAdded(rs);
+                    }
+                }
+            }
+
+            // Removal times aren't unique, so the last one is polled again and listeners apply removals idempotently
+            PreparedStatement removed = connection.prepare(REMOVED_BANS_SQL);
+            removed.setTimestamp(1, new Timestamp(lastRemoved));
+
+            try (ResultSet rs = removed.executeQuery()) {
+                while (rs.next()) {
+                    lastRemoved = Math.max(lastRemoved, rs.getTimestamp("removed_by_date").getTime());
+                    for (Listener listener : listeners) {
+                        listener.onRemoved(rs);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    interface Listener {
+
+        /**
+         * @param rs Row of a new ban, with {@link BanRows#COLUMNS}. It may be inactive already
+         */
+        void onAdded(@NotNull ResultSet rs) throws SQLException;
+
+        /**
+         * @param rs Row of a removed ban, with the id, uuid and ipban columns
+         */
+        default void onRemoved(@NotNull ResultSet rs) throws SQLException {
+        }
+
+        /**
+         * Called after each poll, outside of the query, to apply the collected changes
+         */
+        void afterPoll() throws SQLException;
+    }
+}
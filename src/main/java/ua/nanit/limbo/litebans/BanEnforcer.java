@@ -0,0 +1,89 @@
+package ua.nanit.limbo.litebans;
+
+import net.kyori.adventure.text.Component;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.server.Connections;
+import ua.nanit.limbo.server.Log;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Kicks connected players who were banned after they joined. Instead of checking every
+ * connected player, only the new bans read by the shared {@link BanChangePoller} are used,
+ * and their players are looked up among the connections, so the cost doesn't depend on the online count.
+ * With the index, the index sync passes its new bans to {@link #kick} instead.
+ * All methods are called from a single thread
+ */
+final class BanEnforcer implements BanChangePoller.Listener {
+
+    private final Connections connections;
+    private final KickMessageTemplate kickMessage;
+    private final BiConsumer<UUID, Ban> banListener;
+    // New bans of the current poll
+    private final List<NewBan> newBans = new ArrayList<>();
+
+    /**
+     * @param banListener Called for each new ban, to update the lookup state
+     */
+    BanEnforcer(@NotNull Connections connections,
+                @NotNull KickMessageTemplate kickMessage,
+                @NotNull BiConsumer<UUID, Ban> banListener) {
+        this.connections = connections;
+        this.kickMessage = kickMessage;
+        this.banListener = banListener;
+    }
+
+    @Override
+    public void onAdded(@NotNull ResultSet rs) throws SQLException {
+        UUID uniqueId = BanRows.parseUuid(rs.getString("uuid"));
+        if (uniqueId != null && rs.getBoolean("active")) {
+            newBans.add(new NewBan(uniqueId, BanRows.read(rs)));
+        }
+    }
+
+    @Override
+    public void afterPoll() {
+        for (NewBan ban : newBans) {
+            enforce(ban);
+        }
+        newBans.clear();
+    }
+
+    private void enforce(NewBan newBan) {
+        Ban ban = newBan.ban();
+        if (ban.isExpired()) {
+            return;
+        }
+
+        banListener.accept(newBan.uniqueId(), ban);
+        kick(newBan.uniqueId(), ban);
+    }
+
+    /**
+     * Kick the player if connected
+     *
+     * @param uniqueId Player UUID
+     * @param ban      New active ban of the player
+     */
+    void kick(@NotNull UUID uniqueId, @NotNull Ban ban) {
+        ClientConnection connection = connections.getConnection(uniqueId);
+        if (connection == null) {
+            return;
+        }
+
+        Component message = kickMessage.toComponent(ban);
+        connection.getChannel().eventLoop().execute(() -> {
+            Log.info("Disconnected %s (Banned: %s)", connection.getUsername(), ban.reason());
+            connection.disconnect(message);
+        });
+    }
+
+    private record NewBan(UUID uniqueId, Ban ban) {
+    }
+}
@@ -0,0 +1,239 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * Current bans by player UUID. UUIDs are stored as two longs in an open addressing table
+ * with linear probing, so a lookup doesn't allocate. Lookups are lock-free optimistic reads,
+ * which are retried under the read lock only if the table was changed meanwhile
+ */
+final class BanIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    @Nullable Ban get(@NotNull UUID uniqueId) {
+        long mostBits = uniqueId.getMostSignificantBits();
+        long leastBits = uniqueId.getLeastSignificantBits();
+
+        long stamp = lock.tryOptimisticRead();
+        Ban ban = table.find(mostBits, leastBits);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                ban = table.find(mostBits, leastBits);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return ban;
+    }
+
+    /**
+     * Store the ban, unless a newer ban of the player is already stored
+     */
+    void put(@NotNull UUID uniqueId, @NotNull Ban ban) {
+        long stamp = lock.writeLock();
+        try {
+            if ((size + 1) * 2 > table.bans.length) {
+                resize(table.bans.length * 2);
+            }
+
+            if (table.put(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits(), ban)) {
+                size++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the ban of the player if it's the one with the given id
+     *
+     * @return True if the ban was removed
+     */
+    boolean remove(@NotNull UUID uniqueId, long banId) {
+        long stamp = lock.writeLock();
+        try {
+            Table table = this.table;
+            int slot = table.slot(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+
+            if (slot == -1 || table.bans[slot].id() != banId) {
+                return false;
+            }
+
+            table.delete(slot);
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove all bans matching the filter
+     *
+     * @return Count of removed bans
+     */
+    int removeIf(@NotNull Predicate<Ban> filter) {
+        long stamp = lock.writeLock();
+        try {
+            Table table = this.table;
+            int removed = 0;
+
+            for (int slot = 0; slot < table.bans.length; ) {
+                Ban ban = table.bans[slot];
+                if (ban != null && filter.test(ban)) {
+                    // Deletion shifts the next entries back, so this slot is checked again
+                    table.delete(slot);
+                    removed++;
+                } else {
+                    slot++;
+                }
+            }
+
+            size -= removed;
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void forEach(@NotNull Consumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            Table table = this.table;
+            for (int slot = 0; slot < table.bans.length; slot++) {
+                if (table.bans[slot] != null) {
+                    consumer.accept(table.mostBits[slot], table.leastBits[slot], table.bans[slot]);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void resize(int capacity) {
+        Table old = this.table;
+        Table resized = new Table(capacity);
+
+        for (int slot = 0; slot < old.bans.length; slot++) {
+            if (old.bans[slot] != null) {
+                resized.put(old.mostBits[slot], old.leastBits[slot], old.bans[slot]);
+            }
+        }
+
+        this.table = resized;
+    }
+
+    @FunctionalInterface
+    interface Consumer {
+        void accept(long mostBits, long leastBits, @NotNull Ban ban);
+    }
+
+    private static final class Table {
+
+        private final long[] mostBits;
+        private final long[] leastBits;
+        // Null marks an empty slot
+        private final Ban[] bans;
+        private final int mask;
+
+        Table(int capacity) {
+            this.mostBits = new long[capacity];
+            this.leastBits = new long[capacity];
+            this.bans = new Ban[capacity];
+            this.mask = capacity - 1;
+        }
+
+        @Nullable Ban find(long mostBits, long leastBits) {
+            // Bounded, since an optimistic read may see the table in the middle of a change
+            for (int i = 0, slot = hash(mostBits, leastBits) & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+                Ban ban = bans[slot];
+                if (ban == null) {
+                    return null;
+                }
+                if (this.mostBits[slot] == mostBits && this.leastBits[slot] == leastBits) {
+                    return ban;
+                }
+            }
+            return null;
+        }
+
+        int slot(long mostBits, long leastBits) {
+            for (int slot = hash(mostBits, leastBits) & mask; bans[slot] != null; slot = (slot + 1) & mask) {
+                if (this.mostBits[slot] == mostBits && this.leastBits[slot] == leastBits) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return True if a new entry was inserted
+         */
+        boolean put(long mostBits, long leastBits, Ban ban) {
+            int slot = hash(mostBits, leastBits) & mask;
+
+            for (; bans[slot] != null; slot = (slot + 1) & mask) {
+                if (this.mostBits[slot] == mostBits && this.leastBits[slot] == leastBits) {
+                    if (ban.start() >= bans[slot].start()) {
+                        bans[slot] = ban;
+                    }
+                    return false;
+                }
+            }
+
+            this.mostBits[slot] = mostBits;
+            this.leastBits[slot] = leastBits;
+            this.bans[slot] = ban;
+            return true;
+        }
+
+        /**
+         * Delete the entry and shift back the following entries of the probe sequence,
+         * so no tombstones are needed
+         */
+        void delete(int slot) {
+            int empty = slot;
+
+            for (int next = (slot + 1) & mask; bans[next] != null; next = (next + 1) & mask) {
+                int home = hash(mostBits[next], leastBits[next]) & mask;
+
+                // Move the entry if its home slot isn't between the empty slot and its current slot
+                if (((next - home) & mask) >= ((next - empty) & mask)) {
+                    mostBits[empty] = mostBits[next];
+                    leastBits[empty] = leastBits[next];
+                    bans[empty] = bans[next];
+                    empty = next;
+                }
+            }
+
+            bans[empty] = null;
+        }
+
+        private static int hash(long mostBits, long leastBits) {
+            long hash = (mostBits ^ leastBits) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
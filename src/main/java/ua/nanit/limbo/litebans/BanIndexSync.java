@@ -0,0 +1,292 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ua.nanit.limbo.server.Log;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the ban index in sync with the ban table. All active bans are loaded once, then the changes
+ * read by the shared {@link BanChangePoller} are applied.
+ * The index is also saved to a local snapshot file, so a restart can serve bans right away,
+ * even while the database is down, and poll only what changed since the snapshot.
+ * All methods are called from a single sync thread
+ */
+final class BanIndexSync implements BanChangePoller.Listener {
+
+    private static final int SNAPSHOT_MAGIC = 0x4C424958;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final String ACTIVE_BANS_SQL = "SELECT " + BanRows.COLUMNS
+            + " FROM litebans_bans WHERE active = 1 AND id <= ? AND (until <= 0 OR until > ?)";
+    private static final String CURRENT_BAN_SQL = "SELECT " + BanRows.COLUMNS
+            + " FROM litebans_bans WHERE uuid = ? AND active = 1 ORDER BY time DESC LIMIT 1";
+
+    private final ConnectionPool pool;
+    private final BanChangePoller poller;
+    private final BanIndex index;
+    private final Path snapshotFile;
+    private final BiConsumer<UUID, Ban> newBanListener;
+    // Most bans share few reasons and staff names, so the strings are stored once.
+    // Rebuilt from the live bans on each snapshot, so strings of removed bans don't stay forever
+    private Map<String, String> strings = new HashMap<>();
+    // Changes of the current poll
+    private final Map<UUID, Ban> newBans = new HashMap<>();
+    private final List<UUID> reload = new ArrayList<>();
+
+    private boolean changed;
+
+    /**
+     * @param newBanListener Called after each poll for each new active ban, after it's in the index
+     */
+    BanIndexSync(@NotNull ConnectionPool pool,
+                 @NotNull BanChangePoller poller,
+                 @NotNull BanIndex index,
+                 @NotNull Path snapshotFile,
+                 @NotNull BiConsumer<UUID, Ban> newBanListener) {
+        this.pool = pool;
+        this.poller = poller;
+        this.index = index;
+        this.snapshotFile = snapshotFile;
+        this.newBanListener = newBanListener;
+    }
+
+    /**
+     * Load all active bans, and make the poller start from the current watermarks
+     */
+    void loadAll() throws SQLException {
+        long now = System.currentTimeMillis();
+        strings.clear();
+
+        pool.execute(connection -> {
+            long lastId = poller.startAtCurrent(connection);
+
+            PreparedStatement statement = connection.prepare(ACTIVE_BANS_SQL);
+            statement.setFetchSize(BanRows.FETCH_SIZE);
+            statement.setLong(1, lastId);
+            statement.setLong(2, now);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    putBan(rs);
+                }
+            }
+            return null;
+        });
+
+        changed = true;
+    }
+
+    @Override
+    public void onAdded(@NotNull ResultSet rs) throws SQLException {
+        if (!rs.getBoolean("active")) {
+            return;
+        }
+
+        UUID uniqueId = putBan(rs);
+        if (uniqueId != null) {
+            changed = true;
+            newBans.put(uniqueId, index.get(uniqueId));
+        }
+    }
+
+    @Override
+    public void onRemoved(@NotNull ResultSet rs) throws SQLException {
+        UUID uniqueId = BanRows.parseUuid(rs.getString("uuid"));
+
+        if (uniqueId != null && index.remove(uniqueId, rs.getLong("id"))) {
+            reload.add(uniqueId);
+        }
+    }
+
+    /**
+     * Reload players whose ban was removed, drop expired bans and pass on the new bans
+     */
+    @Override
+    public void afterPoll() throws SQLException {
+        try {
+            if (!reload.isEmpty()) {
+                changed = true;
+
+                // The player may have another active ban besides the removed one
+                pool.execute(connection -> {
+                    PreparedStatement current = connection.prepare(CURRENT_BAN_SQL);
+                    for (UUID uniqueId : reload) {
+                        current.setString(1, uniqueId.toString());
+                        try (ResultSet rs = current.executeQuery()) {
+                            if (rs.next()) {
+                                putBan(rs);
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+        } finally {
+            reload.clear();
+            changed |= index.removeIf(Ban::isExpired) > 0;
+
+            newBans.forEach((uniqueId, ban) -> {
+                if (ban != null && !ban.isExpired()) {
+                    newBanListener.accept(uniqueId, ban);
+                }
+            });
+            newBans.clear();
+        }
+    }
+
+    /**
+     * @return UUID of the stored ban, or null if the row has no valid UUID
+     */
+    private @Nullable UUID putBan(ResultSet rs) throws SQLException {
+        UUID uniqueId = BanRows.parseUuid(rs.getString("uuid"));
+        if (uniqueId == null) {
+            return null;
+        }
+
+        index.put(uniqueId, BanRows.read(rs, this::intern));
+        return uniqueId;
+    }
+
+    private @Nullable String intern(@Nullable String value) {
+        return value != null ? strings.computeIfAbsent(value, key -> key) : null;
+    }
+
+    /**
+     * Load the snapshot file into the index, with its watermarks
+     *
+     * @return True if the snapshot was loaded
+     */
+    boolean loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                Log.warning("Ignoring LiteBans snapshot %s of unknown format", snapshotFile);
+                return false;
+            }
+
+            long lastId = in.readLong();
+            long lastRemoved = in.readLong();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                UUID uniqueId = new UUID(in.readLong(), in.readLong());
+                long id = in.readLong();
+                String bannedByName = intern(readString(in));
+                String reason = intern(readString(in));
+                long start = in.readLong();
+                long end = in.readLong();
+                boolean isIpBan = in.readBoolean();
+
+                index.put(uniqueId, new Ban(id, bannedByName, reason, start, end, isIpBan, true));
+            }
+
+            index.removeIf(Ban::isExpired);
+            poller.startAt(lastId, lastRemoved);
+            return true;
+        } catch (IOException e) {
+            Log.warning("Can't load LiteBans snapshot %s: %s", snapshotFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Save the index into the snapshot file if it has changed since the last save
+     */
+    void saveSnapshot() {
+        if (!changed) {
+            return;
+        }
+
+        compactStrings();
+
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            // The index has applied all changes up to the poller watermarks
+            out.writeLong(poller.getLastId());
+            out.writeLong(poller.getLastRemoved());
+            out.writeInt(index.size());
+
+            IOException[] error = new IOException[1];
+            index.forEach((mostBits, leastBits, ban) -> {
+                if (error[0] != null) {
+                    return;
+                }
+
+                try {
+                    out.writeLong(mostBits);
+                    out.writeLong(leastBits);
+                    out.writeLong(ban.id());
+                    writeString(out, ban.bannedByName());
+                    writeString(out, ban.reason());
+                    out.writeLong(ban.start());
+                    out.writeLong(ban.end());
+                    out.writeBoolean(ban.isIpBan());
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+
+            if (error[0] != null) {
+                throw error[0];
+            }
+        } catch (IOException e) {
+            Log.warning("Can't save LiteBans snapshot %s: %s", snapshotFile, e);
+            return;
+        }
+
+        try {
+            // Readers never see a partially written snapshot
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch (IOException e) {
+            Log.warning("Can't save LiteBans snapshot %s: %s", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Keep only the strings of the bans which are still in the index
+     */
+    private void compactStrings() {
+        Map<String, String> live = new HashMap<>();
+        index.forEach((mostBits, leastBits, ban) -> {
+            if (ban.bannedByName() != null) {
+                live.putIfAbsent(ban.bannedByName(), ban.bannedByName());
+            }
+            if (ban.reason() != null) {
+                live.putIfAbsent(ban.reason(), ban.reason());
+            }
+        });
+        strings = live;
+    }
+
+    private static @Nullable String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects ban lookups for a short delay, or until enough keys are pending, and runs them
+ * as a single IN query. Lookups of the same UUID in one batch share the same future
+ */
+final class BanLookupBatcher {
+
+    private static final String BATCH_SQL_PREFIX = "SELECT " + BanRows.COLUMNS
+        + " FROM litebans_bans WHERE active = 1 AND uuid IN (";
+
+    private final ConnectionPool pool;
+    private final CircuitBreaker breaker;
+    private final int queryTimeoutSeconds;
+    private final Executor executor;
+    private final Executor delayedExecutor;
+    private final int maxSize;
+
+    private Map<UUID, CompletableFuture<Optional<Ban>>> pending = new HashMap<>();
+    private boolean flushScheduled;
+
+    BanLookupBatcher(@NotNull ConnectionPool pool,
+                     @NotNull CircuitBreaker breaker,
+                     long queryTimeout,
+                     @NotNull Executor executor,
+                     long delayMillis,
+                     int maxSize) {
+        this.pool = pool;
+        this.breaker = breaker;
+        // JDBC timeouts are in whole seconds
+        this.queryTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(queryTimeout + 999));
+        this.executor = executor;
+        this.delayedExecutor = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executor);
+        this.maxSize = maxSize;
+    }
+
+    @NotNull CompletableFuture<Optional<Ban>> lookup(@NotNull UUID uniqueId) {
+        CompletableFuture<Optional<Ban>> future;
+        Map<UUID, CompletableFuture<Optional<Ban>>> batch = null;
+
+        synchronized (this) {
+            future = pending.computeIfAbsent(uniqueId, key -> new CompletableFuture<>());
+
+            if (pending.size() >= maxSize) {
+                batch = takePending();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                delayedExecutor.execute(this::flush);
+            }
+        }
+
+        if (batch != null) {
+            Map<UUID, CompletableFuture<Optional<Ban>>> full = batch;
+            executor.execute(() -> run(full));
+        }
+
+        return future;
+    }
+
+    private void flush() {
+        Map<UUID, CompletableFuture<Optional<Ban>>> batch;
+
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+
+        run(batch);
+    }
+
+    private Map<UUID, CompletableFuture<Optional<Ban>>> takePending() {
+        Map<UUID, CompletableFuture<Optional<Ban>>> batch = pending;
+        pending = new HashMap<>();
+        return batch;
+    }
+
+    private void run(Map<UUID, CompletableFuture<Optional<Ban>>> batch) {
+        if (!breaker.tryAcquire()) {
+            CircuitOpenException error = new CircuitOpenException();
+            batch.values().forEach(future -> future.completeExceptionally(error));
+            return;
+        }
+
+        Map<UUID, Ban> bans;
+
+        try {
+            bans = query(batch.keySet().toArray(new UUID[0]));
+            breaker.onSuccess();
+        } catch (Exception error) {
+            // A burst of lookups can saturate the pool while the database is fine
+            if (error instanceof PoolSaturatedException) {
+                breaker.onAborted();
+            } else {
+                breaker.onFailure();
+            }
+            batch.values().forEach(future -> future.completeExceptionally(error));
+            return;
+        }
+
+        batch.forEach((uniqueId, future) -> future.complete(Optional.ofNullable(bans.get(uniqueId))));
+    }
+
+    private Map<UUID, Ban> query(UUID[] uniqueIds) throws SQLException {
+        // Padded to a power of two, so each connection prepares only a few statement variants
+        int parameters = Math.max(uniqueIds.length, Math.min(Integer.highestOneBit(uniqueIds.length - 1) << 1, maxSize));
+        String sql = BATCH_SQL_PREFIX + "?,".repeat(parameters - 1) + "?)";
+
+        return pool.execute(connection -> {
+            PreparedStatement statement = connection.prepare(sql);
+            statement.setQueryTimeout(queryTimeoutSeconds);
+            for (int i = 0; i < parameters; i++) {
+                statement.setString(i + 1, uniqueIds[Math.min(i, uniqueIds.length - 1)].toString());
+            }
+
+            Map<UUID, Ban> bans = new HashMap<>();
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    UUID uniqueId = BanRows.parseUuid(rs.getString("uuid"));
+                    if (uniqueId == null) {
+                        continue;
+                    }
+
+                    Ban ban = BanRows.read(rs);
+
+                    // The latest ban wins, like with a single lookup
+                    bans.merge(uniqueId, ban, (current, other) -> other.start() > current.start() ? other : current);
+                }
+            }
+
+            return bans;
+        });
+    }
+}
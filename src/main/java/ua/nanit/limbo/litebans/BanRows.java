@@ -0,0 +1,53 @@
+package ua.nanit.limbo.litebans;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * Columns of the ban table and their mapping to {@link Ban}, shared by all queries which read bans
+ */
+@UtilityClass
+class BanRows {
+
+    static final int FETCH_SIZE = 1000;
+    static final String COLUMNS = "id, uuid, ip, banned_by_name, reason, time, until, ipban, active";
+    static final String NEW_BANS_SQL = "SELECT " + COLUMNS + " FROM litebans_bans WHERE id > ? ORDER BY id";
+
+    static @NotNull Ban read(@NotNull ResultSet rs) throws SQLException {
+        return read(rs, UnaryOperator.identity());
+    }
+
+    /**
+     * @param strings Applied to the staff name and the reason, to share equal strings
+     */
+    static @NotNull Ban read(@NotNull ResultSet rs, @NotNull UnaryOperator<String> strings) throws SQLException {
+        return new Ban(
+                rs.getLong("id"),
+                strings.apply(rs.getString("banned_by_name")),
+                strings.apply(rs.getString("reason")),
+                rs.getLong("time"),
+                rs.getLong("until"),
+                rs.getBoolean("ipban"),
+                rs.getBoolean("active")
+        );
+    }
+
+    static @Nullable UUID parseUuid(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            // IP bans and some console entries have no valid UUID
+            return null;
+        }
+    }
+}
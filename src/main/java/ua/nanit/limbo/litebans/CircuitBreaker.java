@@ -0,0 +1,91 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stops sending queries to the database after several failures in a row. While open,
+ * queries fail right away. After the open time, a single probe query is let through:
+ * its success closes the breaker, its failure opens it again
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    private long trips;
+    private long rejected;
+
+    CircuitBreaker(int failureThreshold, long openTime) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @return True if a query may be sent, then its result must be reported
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+
+        if (state != State.CLOSED) {
+            rejected++;
+            return false;
+        }
+
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openTime;
+            failures = 0;
+            trips++;
+        }
+    }
+
+    /**
+     * Report a query which never reached the database, like one which got no free pooled connection.
+     * It says nothing about the database, so only a probe is given back to be sent again
+     */
+    synchronized void onAborted() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized @NotNull State getState() {
+        return state;
+    }
+
+    /**
+     * @return Count of times the breaker was opened
+     */
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    /**
+     * @return Count of queries which weren't sent because the breaker was open
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,11 @@
+package ua.nanit.limbo.litebans;
+
+/**
+ * Thrown for lookups which aren't sent to the database because the circuit breaker is open
+ */
+public class CircuitOpenException extends Exception {
+
+    public CircuitOpenException() {
+        super("LiteBans database circuit breaker is open", null, false, false);
+    }
+}
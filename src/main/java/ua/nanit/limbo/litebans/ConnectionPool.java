@@ -0,0 +1,206 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small JDBC connection pool. Each connection is used by one thread at a time and keeps
+ * its prepared statements. Connections idle for longer than the validation interval are checked
+ * before use, and broken ones are replaced. While the database is unreachable, new connections
+ * are attempted with an exponential backoff, and queries fail fast in between
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final String url;
+    private final Semaphore permits;
+    private final long acquireTimeout;
+    private final long validationInterval;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final LongAdder saturations = new LongAdder();
+
+    private long backoff;
+    private long retryAt;
+    private boolean closed;
+
+    ConnectionPool(@NotNull String url, int size, long acquireTimeout, long validationInterval) {
+        this.url = url;
+        this.permits = new Semaphore(size, true);
+        this.acquireTimeout = acquireTimeout;
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Run a query with a connection of the pool, waiting for a free one if needed
+     *
+     * @param query Query to run
+     * @return Query result
+     * @throws SQLException If the database is unreachable or the query fails,
+     *                      or {@link PoolSaturatedException} if there's no free connection in time
+     */
+    <T> T execute(@NotNull Query<T> query) throws SQLException {
+        try {
+            if (!this.permits.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS)) {
+                this.saturations.increment();
+                throw new PoolSaturatedException(this.acquireTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+
+        PooledConnection connection = null;
+        boolean failed = false;
+
+        try {
+            connection = borrow();
+            return query.run(connection);
+        } catch (SQLException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (connection != null) {
+                giveBack(connection, failed);
+            }
+            this.permits.release();
+        }
+    }
+
+    private PooledConnection borrow() throws SQLException {
+        while (true) {
+            PooledConnection connection;
+            synchronized (this) {
+                connection = this.idle.pollFirst();
+            }
+
+            if (connection == null) {
+                return open();
+            }
+
+            if (System.currentTimeMillis() - connection.lastUsed < this.validationInterval
+                    || isValid(connection)) {
+                return connection;
+            }
+
+            connection.close();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        synchronized (this) {
+            if (this.closed) {
+                throw new SQLNonTransientConnectionException("Connection pool is closed");
+            }
+
+            long wait = this.retryAt - System.currentTimeMillis();
+            if (wait > 0) {
+                throw new SQLTransientConnectionException("Database is unreachable, next attempt in " + wait + " ms");
+            }
+        }
+
+        try {
+            PooledConnection connection = new PooledConnection(DriverManager.getConnection(this.url));
+            synchronized (this) {
+                this.backoff = 0;
+            }
+            return connection;
+        } catch (SQLException e) {
+            synchronized (this) {
+                this.backoff = Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, this.backoff * 2));
+                this.retryAt = System.currentTimeMillis() + this.backoff;
+            }
+            throw e;
+        }
+    }
+
+    private void giveBack(PooledConnection connection, boolean failed) {
+        // A failed query doesn't always mean a broken connection, so it's checked
+        if (failed && !isValid(connection)) {
+            connection.close();
+            return;
+        }
+
+        connection.lastUsed = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (!this.closed) {
+                this.idle.addFirst(connection);
+                return;
+            }
+        }
+
+        connection.close();
+    }
+
+    private static boolean isValid(PooledConnection connection) {
+        try {
+            return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Count of queries which didn't get a free connection in time
+     */
+    long getSaturations() {
+        return this.saturations.sum();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.closed = true;
+            for (PooledConnection connection : this.idle) {
+                connection.close();
+            }
+            this.idle.clear();
+        }
+    }
+
+    @FunctionalInterface
+    interface Query<T> {
+        T run(@NotNull PooledConnection connection) throws SQLException;
+    }
+
+    static final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Get the prepared statement for the SQL, prepared once per connection
+         */
+        @NotNull PreparedStatement prepare(@NotNull String sql) throws SQLException {
+            PreparedStatement statement = this.statements.get(sql);
+            if (statement == null) {
+                statement = this.connection.prepareStatement(sql);
+                this.statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        private void close() {
+            try {
+                this.connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ua.nanit.limbo.litebans;
+
+/**
+ * What to do with a login when its ban can't be checked in time
+ */
+public enum FailPolicy {
+
+    /**
+     * Let the player join as if they weren't banned
+     */
+    ALLOW,
+
+    /**
+     * Disconnect the player and let them try again later
+     */
+    DENY,
+
+    /**
+     * Use the last ban found for the player, if it's still active, or else let them join
+     */
+    LAST_KNOWN
+}
@@ -0,0 +1,211 @@
+package ua.nanit.limbo.litebans;
+
+import io.netty.util.NetUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Immutable index of IP bans. Banned networks are grouped by prefix length, and each group
+ * is a sorted primitive array: IPv4 networks as ints, IPv6 networks as pairs of longs.
+ * A lookup masks the address for each prefix length in use and binary searches its group,
+ * from the most specific prefix to the least specific one. Every ban of a network is kept, and bans
+ * which expired since the last rebuild are skipped, so they never hide other bans of the address
+ */
+final class IpBanIndex {
+
+    static final IpBanIndex EMPTY = new IpBanIndex(List.of());
+
+    private final Group[] ipv4;
+    private final Group[] ipv6;
+
+    IpBanIndex(@NotNull Collection<Entry> entries) {
+        TreeMap<Integer, List<Entry>> ipv4ByPrefix = new TreeMap<>(Comparator.reverseOrder());
+        TreeMap<Integer, List<Entry>> ipv6ByPrefix = new TreeMap<>(Comparator.reverseOrder());
+
+        for (Entry entry : entries) {
+            (entry.ipv6 ? ipv6ByPrefix : ipv4ByPrefix).computeIfAbsent(entry.prefix, key -> new ArrayList<>()).add(entry);
+        }
+
+        this.ipv4 = ipv4ByPrefix.values().stream().map(Group::new).toArray(Group[]::new);
+        this.ipv6 = ipv6ByPrefix.values().stream().map(Group::new).toArray(Group[]::new);
+    }
+
+    /**
+     * @param address IPv4 (4 bytes) or IPv6 (16 bytes) address
+     * @return The active ban of the most specific network containing the address, if any
+     */
+    @Nullable Ban find(byte @NotNull [] address) {
+        boolean isIpv6 = address.length == 16;
+        long high = isIpv6 ? readLong(address, 0) : readInt(address) & 0xFFFFFFFFL;
+        long low = isIpv6 ? readLong(address, 8) : 0;
+
+        for (Group group : isIpv6 ? ipv6 : ipv4) {
+            Ban ban = group.find(high, low);
+            if (ban != null) {
+                return ban;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parse a banned address: an exact address, a CIDR network or an IPv4 wildcard like 10.0.*.*
+     *
+     * @return Index entry, or null if the address can't be parsed
+     */
+    static @Nullable Entry parse(@Nullable String value, @NotNull Ban ban) {
+        if (value == null) {
+            return null;
+        }
+
+        String address = value.trim();
+        int prefix = -1;
+
+        int wildcard = address.indexOf('*');
+        if (wildcard != -1) {
+            // Each full octet before the wildcard is 8 bits of the prefix
+            String fixed = address.substring(0, wildcard);
+            int octets = (int) fixed.chars().filter(c -> c == '.').count();
+            if (octets == 0) {
+                // Would match every address
+                return null;
+            }
+            address = fixed + "0.0.0.0".substring(0, 2 * (4 - octets) - 1);
+            prefix = octets * 8;
+        }
+
+        int slash = address.indexOf('/');
+        if (slash != -1) {
+            try {
+                prefix = Integer.parseInt(address.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            address = address.substring(0, slash);
+        }
+
+        // Never resolves host names, unlike InetAddress
+        byte[] bytes = NetUtil.createByteArrayFromIpAddressString(address);
+        if (bytes == null) {
+            return null;
+        }
+
+        boolean isIpv6 = bytes.length == 16;
+        int bits = isIpv6 ? 128 : 32;
+        if (prefix == -1) {
+            prefix = bits;
+        }
+        if (prefix < 0 || prefix > bits) {
+            return null;
+        }
+
+        long high = isIpv6 ? readLong(bytes, 0) : readInt(bytes) & 0xFFFFFFFFL;
+        long low = isIpv6 ? readLong(bytes, 8) : 0;
+        return new Entry(isIpv6, prefix, high & highMask(isIpv6, prefix), low & lowMask(isIpv6, prefix), ban);
+    }
+
+    private static long highMask(boolean isIpv6, int prefix) {
+        if (!isIpv6) {
+            return prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+        }
+        return prefix == 0 ? 0 : prefix >= 64 ? -1L : -1L << (64 - prefix);
+    }
+
+    private static long lowMask(boolean isIpv6, int prefix) {
+        if (!isIpv6 || prefix <= 64) {
+            return 0;
+        }
+        return prefix == 128 ? -1L : -1L << (128 - prefix);
+    }
+
+    private static int readInt(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Banned network. For IPv4, the address is in the low 32 bits of high, and low is zero
+     */
+    record Entry(boolean ipv6, int prefix, long high, long low, Ban ban) {
+    }
+
+    /**
+     * Networks of one prefix length, sorted by address
+     */
+    private static final class Group {
+
+        private final long highMask;
+        private final long lowMask;
+        private final long[] highs;
+        private final long[] lows;
+        private final Ban[] bans;
+
+        Group(List<Entry> entries) {
+            Entry first = entries.getFirst();
+            this.highMask = highMask(first.ipv6, first.prefix);
+            this.lowMask = lowMask(first.ipv6, first.prefix);
+
+            List<Entry> sorted = new ArrayList<>(entries);
+            // Bans of the same network are next to each other, the latest one first
+            sorted.sort(Comparator.comparingLong(Entry::high)
+                .thenComparingLong(Entry::low)
+                .thenComparing(entry -> entry.ban.start(), Comparator.reverseOrder()));
+
+            this.highs = new long[sorted.size()];
+            this.lows = new long[sorted.size()];
+            this.bans = new Ban[sorted.size()];
+
+            for (int i = 0; i < sorted.size(); i++) {
+                Entry entry = sorted.get(i);
+                this.highs[i] = entry.high;
+                this.lows[i] = entry.low;
+                this.bans[i] = entry.ban;
+            }
+        }
+
+        @Nullable Ban find(long high, long low) {
+            high &= highMask;
+            low &= lowMask;
+
+            // First entry which isn't less than the network
+            int from = 0;
+            int to = highs.length;
+
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                int compare = Long.compare(highs[middle], high);
+                if (compare == 0) {
+                    compare = Long.compare(lows[middle], low);
+                }
+
+                if (compare < 0) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+
+            for (int i = from; i < highs.length && highs[i] == high && lows[i] == low; i++) {
+                if (!bans[i].isExpired()) {
+                    return bans[i];
+                }
+            }
+
+            return null;
+        }
+    }
+}
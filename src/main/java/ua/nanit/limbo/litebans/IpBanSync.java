@@ -0,0 +1,118 @@
+package ua.nanit.limbo.litebans;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the IP ban index in sync with the ban table: all active IP bans are loaded once,
+ * then the changes read by the shared {@link BanChangePoller} are applied. The index is immutable,
+ * so it's rebuilt from the known bans and replaced only when they change.
+ * All methods except the lookup are called from a single sync thread
+ */
+final class IpBanSync implements BanChangePoller.Listener {
+
+    private static final String ACTIVE_BANS_SQL = "SELECT " + BanRows.COLUMNS
+            + " FROM litebans_bans WHERE ipban = 1 AND active = 1 AND id <= ? AND (until <= 0 OR until > ?)";
+
+    private final ConnectionPool pool;
+    private final BanChangePoller poller;
+    // Ban id -> entry
+    private final Map<Long, IpBanIndex.Entry> entries = new HashMap<>();
+    private volatile IpBanIndex index = IpBanIndex.EMPTY;
+
+    private boolean loaded;
+    private boolean changed;
+
+    IpBanSync(@NotNull ConnectionPool pool, @NotNull BanChangePoller poller) {
+        this.pool = pool;
+        this.poller = poller;
+    }
+
+    @Nullable Ban find(@NotNull InetAddress address) {
+        return index.find(address.getAddress());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Load all active IP bans, and make the poller start not later than the current watermarks
+     */
+    void loadAll() throws SQLException {
+        long now = System.currentTimeMillis();
+
+        pool.execute(connection -> {
+            long lastId = poller.startAtCurrent(connection);
+
+            PreparedStatement statement = connection.prepare(ACTIVE_BANS_SQL);
+            statement.setFetchSize(BanRows.FETCH_SIZE);
+            statement.setLong(1, lastId);
+            statement.setLong(2, now);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    putBan(rs);
+                }
+            }
+            return null;
+        });
+
+        loaded = true;
+        rebuild();
+    }
+
+    @Override
+    public void onAdded(@NotNull ResultSet rs) throws SQLException {
+        if (rs.getBoolean("ipban") && rs.getBoolean("active")) {
+            changed |= putBan(rs);
+        }
+    }
+
+    @Override
+    public void onRemoved(@NotNull ResultSet rs) throws SQLException {
+        if (rs.getBoolean("ipban")) {
+            changed |= entries.remove(rs.getLong("id")) != null;
+        }
+    }
+
+    /**
+     * Drop expired bans and rebuild the index if anything changed.
+     * If the first load has failed, it's retried instead
+     */
+    @Override
+    public void afterPoll() throws SQLException {
+        if (!loaded) {
+            loadAll();
+            return;
+        }
+
+        if (entries.values().removeIf(entry -> entry.ban().isExpired()) || changed) {
+            rebuild();
+        }
+        changed = false;
+    }
+
+    private boolean putBan(ResultSet rs) throws SQLException {
+        Ban ban = BanRows.read(rs);
+
+        IpBanIndex.Entry entry = IpBanIndex.parse(rs.getString("ip"), ban);
+        if (entry == null) {
+            return false;
+        }
+
+        entries.put(ban.id(), entry);
+        return true;
+    }
+
+    private void rebuild() {
+        this.index = new IpBanIndex(entries.values());
+    }
+}
@@ -0,0 +1,111 @@
+package ua.nanit.limbo.litebans;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.protocol.packets.login.PacketLoginDisconnect;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.util.ComponentUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Kick message template, parsed by MiniMessage only once. The message with a ban reason
+ * is built once per reason and serialized once per JSON format, split at the duration placeholder.
+ * Messages are cached by the reason text itself, so an edited reason gets a new message.
+ * Kicking a banned player then only joins the parts with the current duration text
+ */
+public final class KickMessageTemplate {
+
+    // Private use characters, which are never escaped in JSON
+    private static final String REASON_MARKER = "\uE000reason\uE000";
+    private static final String DURATION_MARKER = "\uE000duration\uE000";
+    private static final int CACHE_SIZE = 10000;
+
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacyAmpersand();
+
+    private final Component template;
+    private final Cache<String, CompiledKick> kicks = Caffeine.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build();
+
+    public KickMessageTemplate(@NotNull String format) {
+        this.template = MiniMessage.miniMessage().deserialize(format, TagResolver.builder()
+            .resolver(Placeholder.unparsed("reason", REASON_MARKER))
+            .resolver(Placeholder.unparsed("duration", DURATION_MARKER))
+            .build());
+    }
+
+    /**
+     * @return Kick message of the ban, for kicks outside of the login state
+     */
+    public @NotNull Component toComponent(@NotNull Ban ban) {
+        return compile(ban).message.replaceText(builder -> builder
+            .matchLiteral(DURATION_MARKER)
+            .replacement(ban.getDurationText()));
+    }
+
+    /**
+     * @return Login disconnect packet with the kick message of the ban, serialized for the client version
+     */
+    public @NotNull PacketLoginDisconnect toLoginDisconnect(@NotNull Ban ban, @NotNull Version version) {
+        String[] parts = compile(ban).jsonParts(ComponentUtils.getJsonChatSerializer(version));
+        String duration = escapeJson(ban.getDurationText());
+
+        StringBuilder json = new StringBuilder(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            json.append(duration).append(parts[i]);
+        }
+
+        PacketLoginDisconnect packet = new PacketLoginDisconnect();
+        packet.setJson(json.toString());
+        return packet;
+    }
+
+    private CompiledKick compile(Ban ban) {
+        String banReason = ban.reason() != null ? ban.reason() : "";
+
+        return kicks.get(banReason, key -> {
+            String normalizedReason = key
+                .replace("\\r\\n", "\n")
+                .replace("\\n", "\n")
+                .replace("\r\n", "\n")
+                .replace("\r", "\n");
+
+            Component reason = LEGACY.deserialize(normalizedReason);
+            return new CompiledKick(template.replaceText(builder -> builder
+                .matchLiteral(REASON_MARKER)
+                .replacement(reason)));
+        });
+    }
+
+    private static String escapeJson(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final class CompiledKick {
+
+        private static final Pattern DURATION_SPLIT = Pattern.compile(Pattern.quote(DURATION_MARKER));
+
+        private final Component message;
+        // There are only a few serializers, one per range of versions
+        private final Map<GsonComponentSerializer, String[]> jsonParts = new ConcurrentHashMap<>(4);
+
+        CompiledKick(Component message) {
+            this.message = message;
+        }
+
+        String[] jsonParts(GsonComponentSerializer serializer) {
+            return jsonParts.computeIfAbsent(serializer,
+                key -> DURATION_SPLIT.split(key.serialize(message), -1));
+        }
+    }
+}
@@ -1,57 +1,339 @@
 package ua.nanit.limbo.litebans;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Expiry;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import ua.nanit.limbo.configuration.LimboConfig;
+import ua.nanit.limbo.server.Connections;
+import ua.nanit.limbo.server.Log;
 
-import java.sql.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LiteBansIntegration {
+    private static final String BANNED_UUIDS_SQL = """
+        SELECT uuid
+        FROM litebans_bans
+        WHERE active = 1 AND (until <= 0 OR until > ?)
+        """;
+
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 60000;
+    private static final Duration BAN_CACHE_TTL = Duration.ofSeconds(30);
+    private static final int LAST_KNOWN_SIZE = 10000;
+
+    private final ConnectionPool pool;
+    @Getter
+    private final FailPolicy failPolicy;
+    private final long lookupTimeout;
+    // Bounded, so a slow database can't pile up an unlimited count of running queries
+    private final ExecutorService executor;
+    // Players without a ban are cached too, with their own TTL
+    private final AsyncLoadingCache<@NotNull UUID, Optional<Ban>> cache;
+    private final BanLookupBatcher batcher;
     @Getter
-    private final Connection connection;
-    private final LoadingCache<@NotNull UUID, Ban> cache = Caffeine.newBuilder()
-        .expireAfterWrite(Duration.ofSeconds(30))
-        .build(this::findCurrentBan);
-
-    public LiteBansIntegration(String connectionString) throws Exception {
-        this.connection = DriverManager.getConnection(connectionString);
-    }
-
-    public @NotNull Optional<Ban> getCurrentBan(UUID uniqueId) {
-        return Optional.ofNullable(cache.get(uniqueId));
-    }
-
-    public @Nullable Ban findCurrentBan(UUID uniqueId) {
-        String sql = """
-            SELECT *
-            FROM litebans_bans
-            WHERE uuid = ? AND active = 1
-            ORDER BY time DESC
-            LIMIT 1
-            """;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, uniqueId.toString());
-            ResultSet rs = statement.executeQuery();
-
-            if (rs.next()) {
-                String bannedByName = rs.getString("banned_by_name");
-                String reason = rs.getString("reason");
-                long start = rs.getLong("time");
-                long end = rs.getLong("until");
-                boolean isIpBan = rs.getBoolean("ipban");
-                boolean isActive = rs.getBoolean("active");
-
-                return new Ban(bannedByName, reason, start, end, isIpBan, isActive);
+    private final CircuitBreaker circuitBreaker;
+    // Bans found by the last lookups, for the LAST_KNOWN fail policy
+    private final @Nullable Cache<UUID, Ban> lastKnown;
+    private final LongAdder fallbacks = new LongAdder();
+    @Getter
+    private final KickMessageTemplate kickMessage;
+    private final double bloomFalsePositiveRate;
+    private volatile @Nullable BanBloomFilter bloomFilter;
+    // Players banned since the filter was built, with the time they were added
+    private final Map<UUID, Long> recentBans = new ConcurrentHashMap<>();
+    // Present in index mode, then lookups never touch the database
+    private final @Nullable BanIndex index;
+    private final @Nullable BanIndexSync indexSync;
+    private final @Nullable IpBanSync ipBans;
+    private final ScheduledExecutorService scheduler;
+
+    public LiteBansIntegration(@NotNull LimboConfig config, @NotNull Connections connections) throws Exception {
+        this.pool = new ConnectionPool(config.getLiteBansConnectionString(), config.getLiteBansPoolSize(),
+            config.getLiteBansLookupTimeout(), config.getLiteBansValidationInterval());
+        this.failPolicy = config.getLiteBansFailPolicy();
+        this.kickMessage = new KickMessageTemplate(config.getLiteBansKickMessageFormat());
+        this.lookupTimeout = config.getLiteBansLookupTimeout();
+        this.executor = Executors.newFixedThreadPool(config.getLiteBansLookupThreads(),
+                Thread.ofVirtual().name("litebans-lookup-", 0).factory());
+        this.circuitBreaker = new CircuitBreaker(config.getLiteBansBreakerFailureThreshold(),
+            config.getLiteBansBreakerOpenTime());
+        this.batcher = new BanLookupBatcher(this.pool, this.circuitBreaker, this.lookupTimeout, this.executor,
+            config.getLiteBansBatchDelay(), config.getLiteBansBatchSize());
+        this.lastKnown = this.failPolicy == FailPolicy.LAST_KNOWN
+            ? Caffeine.newBuilder().maximumSize(LAST_KNOWN_SIZE).build()
+            : null;
+        // Concurrent lookups of the same UUID share the cached future, and misses are batched
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(config.getLiteBansCacheSize())
+            .expireAfter(banExpiry(Duration.ofMillis(config.getLiteBansNegativeCacheTtl())))
+            .executor(this.executor)
+            .buildAsync((uniqueId, executor) -> batcher.lookup(uniqueId)
+                .thenApply(ban -> remember(uniqueId, ban)));
+        this.bloomFalsePositiveRate = config.getLiteBansBloomFalsePositiveRate();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("litebans-sync").factory());
+
+        // One poller reads the ban changes for the index, the IP bans and the enforcer
+        BanChangePoller poller = new BanChangePoller(this.pool);
+        long pollInterval = Long.MAX_VALUE;
+
+        long enforceInterval = config.getLiteBansEnforceInterval();
+        BanEnforcer enforcer = enforceInterval > 0
+            ? new BanEnforcer(connections, this.kickMessage, this::onNewBan)
+            : null;
+
+        if (config.isLiteBansIndex()) {
+            this.index = new BanIndex();
+            // The sync already applies the new bans, so the enforcer only kicks their players
+            this.indexSync = new BanIndexSync(this.pool, poller, this.index, Paths.get(config.getLiteBansSnapshotFile()),
+                enforcer != null ? enforcer::kick : (uniqueId, ban) -> {});
+            loadIndex();
+            poller.addListener(this.indexSync);
+            pollInterval = config.getLiteBansSyncInterval();
+        } else {
+            this.index = null;
+            this.indexSync = null;
+            // Fail at startup if the database can't be reached at all
+            this.pool.execute(connection -> null);
+
+            // The index already answers without the database, so the filter is only used without it
+            if (config.isLiteBansBloomFilter()) {
+                long interval = config.getLiteBansBloomRebuildInterval();
+                rebuildBloomFilter();
+                scheduler.scheduleWithFixedDelay(this::rebuildBloomFilter, interval, interval, TimeUnit.MILLISECONDS);
+            }
+
+            if (enforcer != null) {
+                poller.addListener(enforcer);
+                pollInterval = enforceInterval;
+            }
+        }
+
+        if (config.isLiteBansIpBans()) {
+            this.ipBans = new IpBanSync(this.pool, poller);
+            loadIpBans();
+            poller.addListener(this.ipBans);
+            pollInterval = Math.min(pollInterval, config.getLiteBansIpBansSyncInterval());
+        } else {
+            this.ipBans = null;
+        }
+
+        if (poller.hasListeners()) {
+            // Catches up from the snapshot, or only reads the watermarks if nothing was loaded
+            poller.poll();
+            scheduler.scheduleWithFixedDelay(poller::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
+
+        if (this.indexSync != null) {
+            Log.info("Loaded %d LiteBans bans into the index", this.index.size());
+            this.indexSync.saveSnapshot();
+            scheduler.scheduleWithFixedDelay(this.indexSync::saveSnapshot,
+                SNAPSHOT_INTERVAL_MILLIS, SNAPSHOT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Make a ban found by the enforcer visible to lookups before the caches and the filter expire.
+     * Only used without the index, which gets new bans from its own sync
+     */
+    private void onNewBan(UUID uniqueId, Ban ban) {
+        recentBans.put(uniqueId, System.currentTimeMillis());
+        cache.synchronous().invalidate(uniqueId);
+        remember(uniqueId, Optional.of(ban));
+    }
+
+    private static Expiry<UUID, Optional<Ban>> banExpiry(Duration negativeTtl) {
+        return new Expiry<>() {
+            @Override
+            public long expireAfterCreate(UUID key, Optional<Ban> value, long currentTime) {
+                return (value.isPresent() ? BAN_CACHE_TTL : negativeTtl).toNanos();
+            }
+
+            @Override
+            public long expireAfterUpdate(UUID key, Optional<Ban> value, long currentTime, long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
             }
+
+            @Override
+            public long expireAfterRead(UUID key, Optional<Ban> value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        };
+    }
+
+    /**
+     * Rebuild the Bloom filter from all active bans. Bans added since the last rebuild
+     * are missed by the filter until the next one
+     */
+    private void rebuildBloomFilter() {
+        long startTime = System.currentTimeMillis();
+
+        try {
+            this.bloomFilter = pool.execute(connection -> {
+                PreparedStatement statement = connection.prepare(BANNED_UUIDS_SQL);
+                statement.setFetchSize(BanRows.FETCH_SIZE);
+                statement.setLong(1, System.currentTimeMillis());
+
+                long[] uniqueIds = new long[2048];
+                int count = 0;
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        UUID uniqueId = BanRows.parseUuid(rs.getString("uuid"));
+                        if (uniqueId == null) {
+                            continue;
+                        }
+
+                        if (count * 2 == uniqueIds.length) {
+                            uniqueIds = Arrays.copyOf(uniqueIds, uniqueIds.length * 2);
+                        }
+                        uniqueIds[count * 2] = uniqueId.getMostSignificantBits();
+                        uniqueIds[count * 2 + 1] = uniqueId.getLeastSignificantBits();
+                        count++;
+                    }
+                }
+
+                return new BanBloomFilter(uniqueIds, count, bloomFalsePositiveRate);
+            });
+
+            // Bans added after the query started may be missing from the new filter
+            recentBans.values().removeIf(addedTime -> addedTime < startTime);
+        } catch (Exception error) {
+            // The previous filter is kept, or all lookups use the cache if there's none
+            Log.warning("Can't rebuild LiteBans Bloom filter: %s", error);
+        }
+    }
+
+    private void loadIndex() throws SQLException {
+        if (indexSync.loadSnapshot()) {
+            // Changes since the snapshot are applied by the first poll
+            return;
+        }
+
+        indexSync.loadAll();
+    }
+
+    private void loadIpBans() {
+        try {
+            ipBans.loadAll();
+            Log.info("Loaded %d LiteBans IP bans into the index", ipBans.size());
         } catch (SQLException error) {
-            throw new RuntimeException(error);
+            // Retried by the next poll
+            Log.warning("Can't load LiteBans IP bans: %s", error);
+        }
+    }
+
+    /**
+     * Look up the current ban without blocking the calling thread. If the database fails
+     * or doesn't answer in time, the result comes from the fail policy, and with the DENY policy
+     * the future completes exceptionally
+     *
+     * @param uniqueId Player UUID
+     * @return Future of the current ban, if any
+     */
+    public @NotNull CompletableFuture<Optional<Ban>> getCurrentBan(@NotNull UUID uniqueId) {
+        if (index != null) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(index.get(uniqueId)));
+        }
+
+        BanBloomFilter bloomFilter = this.bloomFilter;
+        if (bloomFilter != null && !bloomFilter.mightContain(uniqueId) && !recentBans.containsKey(uniqueId)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        // A copy, so the timeout doesn't fail the future shared through the cache
+        return cache.get(uniqueId)
+            .copy()
+            .orTimeout(lookupTimeout, TimeUnit.MILLISECONDS)
+            .exceptionallyCompose(error -> fallback(uniqueId, error));
+    }
+
+    /**
+     * Look up the IP ban of the address in memory. Never touches the database
+     *
+     * @param address Player address, possibly forwarded by a proxy
+     * @return Active ban of the address or its network, if any
+     */
+    public @NotNull Optional<Ban> getIpBan(@NotNull SocketAddress address) {
+        if (ipBans == null || !(address instanceof InetSocketAddress inetAddress) || inetAddress.getAddress() == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(ipBans.find(inetAddress.getAddress()));
+    }
+
+    private Optional<Ban> remember(UUID uniqueId, Optional<Ban> ban) {
+        if (lastKnown != null) {
+            if (ban.isPresent()) {
+                lastKnown.put(uniqueId, ban.get());
+            } else {
+                lastKnown.invalidate(uniqueId);
+            }
+        }
+        return ban;
+    }
+
+    private CompletableFuture<Optional<Ban>> fallback(UUID uniqueId, Throwable error) {
+        fallbacks.increment();
+        Log.debug("LiteBans lookup of %s failed, applying %s policy: %s", uniqueId, failPolicy, error);
+
+        return switch (failPolicy) {
+            case ALLOW -> CompletableFuture.completedFuture(Optional.empty());
+            case DENY -> CompletableFuture.failedFuture(error);
+            case LAST_KNOWN -> CompletableFuture.completedFuture(
+                Optional.ofNullable(lastKnown.getIfPresent(uniqueId)).filter(ban -> !ban.isExpired()));
+        };
+    }
+
+    /**
+     * @return Count of lookups answered by the fail policy
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * @return Count of queries which didn't get a free pooled connection in time
+     */
+    public long getPoolSaturations() {
+        return pool.getSaturations();
+    }
+
+    public void close() {
+        this.scheduler.shutdownNow();
+
+        if (this.indexSync != null) {
+            try {
+                // Saved here only after the sync thread is done with the index
+                if (this.scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                    this.indexSync.saveSnapshot();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
-        return null;
+        this.executor.shutdownNow();
+        this.pool.close();
     }
 }
@@ -0,0 +1,14 @@
+package ua.nanit.limbo.litebans;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown when no pooled connection gets free in time. The database itself may be healthy,
+ * so this isn't counted as a database failure
+ */
+final class PoolSaturatedException extends SQLTransientConnectionException {
+
+    PoolSaturatedException(long timeout) {
+        super("No free database connection in " + timeout + " ms");
+    }
+}
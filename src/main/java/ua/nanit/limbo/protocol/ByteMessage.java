@@ -119,6 +119,10 @@ public class ByteMessage extends ByteBuf {
         }
     }
 
+    public static int getVarIntSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
     public String readString() {
         return readString(Short.MAX_VALUE);
     }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import lombok.Getter;
+import lombok.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.Log;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * PacketSequence joins the frames of several snapshots, which are always sent together
+ * in the same state, into one composite buffer for each MC version.
+ * The whole sequence is written to the channel at once, and the composite only references
+ * the snapshot frames, so no data is copied
+ */
+public class PacketSequence {
+
+    private static final Version[] VERSIONS = Version.values();
+
+    private final String name;
+    @Getter
+    private final State state;
+    private final ByteBuf[] frames = new ByteBuf[VERSIONS.length];
+    private final ByteBuf[] compressedFrames = new ByteBuf[VERSIONS.length];
+
+    private PacketSequence(@NonNull String name, @NonNull State state) {
+        this.name = name;
+        this.state = state;
+    }
+
+    private void compose(@NonNull Function<Version, List<PacketSnapshot>> packetsFunction) {
+        for (Version version : VERSIONS) {
+            if (version.equals(Version.UNDEFINED)) {
+                continue;
+            }
+
+            List<PacketSnapshot> packets = packetsFunction.apply(version);
+            if (packets == null || packets.isEmpty()) {
+                continue;
+            }
+
+            this.frames[version.ordinal()] = compose(packets, version, false);
+            this.compressedFrames[version.ordinal()] = compose(packets, version, true);
+        }
+    }
+
+    @Nullable
+    private ByteBuf compose(@NonNull List<PacketSnapshot> packets, @NonNull Version version, boolean compressed) {
+        CompositeByteBuf composite = ByteBufAllocator.DEFAULT.compositeDirectBuffer(packets.size());
+
+        for (PacketSnapshot packet : packets) {
+            ByteBuf frame = packet.retainedFrame(this.state, version, compressed);
+
+            if (frame == null) {
+                // Compressed frames don't exist at all if compression is disabled
+                if (!compressed) {
+                    Log.warning("Packet %s is not registered for [%s|%s], skipping it in %s", packet, version, this.state, this.name);
+                }
+                continue;
+            }
+
+            composite.addComponent(true, frame);
+        }
+
+        if (composite.numComponents() == 0) {
+            composite.release();
+            return null;
+        }
+
+        // Read-only like the snapshot frames, since the same composite is shared by all connections
+        return composite.asReadOnly();
+    }
+
+    /**
+     * Get the composite frame prepared for the given version
+     *
+     * @param version    Client version
+     * @param compressed Whether compression is enabled for the connection
+     * @return Retained duplicate of the composite which must be written or released by the caller,
+     * or null if the sequence is empty for this version
+     */
+    @Nullable
+    public ByteBuf retainedFrame(@NonNull Version version, boolean compressed) {
+        ByteBuf frame = (compressed ? this.compressedFrames : this.frames)[version.ordinal()];
+        return frame == null ? null : frame.retainedDuplicate();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    @NonNull
+    public static PacketSequence of(@NonNull String name,
+                                    @NonNull State state,
+                                    @NonNull Function<Version, List<PacketSnapshot>> packetsFunction) {
+        PacketSequence sequence = new PacketSequence(name, state);
+        sequence.compose(packetsFunction);
+        return sequence;
+    }
+}
@@ -17,26 +17,50 @@
 
 package ua.nanit.limbo.protocol;
 
-import lombok.AllArgsConstructor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import lombok.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.util.CompressionUtils;
 
-import java.util.EnumMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 /**
- * PacketSnapshot encodes a packet to byte array for each MC version.
- * Some versions have the same snapshot, so there are mappings to avoid data copying
+ * PacketSnapshot encodes a packet once for each MC version and keeps the result as
+ * fully framed (length + packet id + body) read-only direct buffers, one per state
+ * the packet is registered in. The encoder writes them as retained duplicates,
+ * so sending a snapshot never copies or encodes anything.
+ * If compression is enabled, the compressed frames are prepared once as well.
+ * Some versions have the same frame, so they share a single buffer to avoid data copying
  */
-@AllArgsConstructor
 public class PacketSnapshot implements PacketOut {
 
+    private static final State[] STATES = State.values();
+    private static final Version[] VERSIONS = Version.values();
+
     private final Class<? extends PacketOut> packetClazz;
-    private final Map<Version, byte[]> versionMessages = new EnumMap<>(Version.class);
-    private final Map<Version, Version> mappings = new EnumMap<>(Version.class);
+    private final int compressionThreshold;
+    private final ByteBuf[][] frames = new ByteBuf[STATES.length][VERSIONS.length];
+    private final ByteBuf[][] compressedFrames = new ByteBuf[STATES.length][VERSIONS.length];
+
+    /**
+     * @param packetClazz          Class of the packet
+     * @param compressionThreshold Compression threshold to prepare the compressed frames with,
+     *                             or -1 if compression is disabled
+     */
+    public PacketSnapshot(@NonNull Class<? extends PacketOut> packetClazz, int compressionThreshold) {
+        this.packetClazz = packetClazz;
+        this.compressionThreshold = compressionThreshold;
+    }
 
     @NonNull
     public Class<? extends PacketOut> getPacketClass() {
@@ -44,44 +68,96 @@ public class PacketSnapshot implements PacketOut {
     }
 
     public void encode(@NonNull Function<Version, PacketOut> packetComputeFunction) {
-        encode(packetComputeFunction, List.of(Version.values()));
+        encode(packetComputeFunction, Arrays.stream(VERSIONS).filter(Version::isSupported).toList());
     }
 
     public void encode(@NonNull Function<Version, PacketOut> packetComputeFunction,
                        @NonNull List<Version> versions) {
-        Map<Integer, Version> hashes = new HashMap<>();
+        // ByteBuf equality is content based, so identical frames are stored only once
+        Map<ByteBuf, ByteBuf> uniqueFrames = new HashMap<>();
+        Map<ByteBuf, ByteBuf> compressedByFrame = new IdentityHashMap<>();
 
         for (Version version : versions) {
-            if (version.equals(Version.UNDEFINED)) {
-                continue;
-            }
+            ByteMessage body = ByteMessage.create();
+
+            try {
+                packetComputeFunction.apply(version).encode(body, version);
 
-            ByteMessage encodedMessage = ByteMessage.create();
-            packetComputeFunction.apply(version).encode(encodedMessage, version);
+                for (State state : STATES) {
+                    State.PacketRegistry registry = state.clientBound.getRegistry(version);
+                    if (registry == null) {
+                        continue;
+                    }
 
-            int hash = encodedMessage.hashCode();
-            Version hashed = hashes.get(hash);
+                    int packetId = registry.getPacketId(this.packetClazz);
+                    if (packetId == -1) {
+                        continue;
+                    }
 
-            if (hashed != null) {
-                this.mappings.put(version, hashed);
-            } else {
-                hashes.put(hash, version);
-                this.mappings.put(version, version);
-                this.versionMessages.put(version, encodedMessage.toByteArray());
+                    ByteBuf frame = deduplicate(uniqueFrames, createFrame(packetId, body));
+                    this.frames[state.ordinal()][version.ordinal()] = frame;
+
+                    if (this.compressionThreshold >= 0 && isCompressible(state, version)) {
+                        // Equal frames always give equal compressed frames, so each one is compressed only once
+                        this.compressedFrames[state.ordinal()][version.ordinal()] = compressedByFrame.computeIfAbsent(frame,
+                                (key) -> createCompressedFrame(packetId, body));
+                    }
+                }
+            } finally {
+                body.release();
             }
+        }
+    }
+
+    /**
+     * Get the frame prepared for the given state and version
+     *
+     * @param state      Current connection state
+     * @param version    Client version
+     * @param compressed Whether compression is enabled for the connection
+     * @return Retained duplicate of the frame which must be written or released by the caller,
+     * or null if the packet is not registered for this state and version
+     */
+    @Nullable
+    public ByteBuf retainedFrame(@NonNull State state, @NonNull Version version, boolean compressed) {
+        ByteBuf[][] source = compressed ? this.compressedFrames : this.frames;
+        ByteBuf frame = source[state.ordinal()][version.ordinal()];
+        return frame == null ? null : frame.retainedDuplicate();
+    }
 
-            encodedMessage.release();
+    /**
+     * Release all frames of this snapshot. Frames which are already written stay valid until they are sent
+     */
+    public void release() {
+        Set<ByteBuf> released = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (ByteBuf[][] source : List.of(this.frames, this.compressedFrames)) {
+            for (ByteBuf[] stateFrames : source) {
+                for (int i = 0; i < stateFrames.length; i++) {
+                    ByteBuf frame = stateFrames[i];
+
+                    if (frame != null && released.add(frame)) {
+                        frame.release();
+                    }
+                    stateFrames[i] = null;
+                }
+            }
         }
     }
 
     @Override
     public void encode(@NonNull ByteMessage msg, @NonNull Version version) {
-        Version mapped = this.mappings.get(version);
-        byte[] message = this.versionMessages.get(mapped);
+        for (ByteBuf[] stateFrames : this.frames) {
+            ByteBuf frame = stateFrames[version.ordinal()];
 
-        if (message != null) {
-            msg.writeBytes(message);
-            return;
+            if (frame != null) {
+                // Skip the length and packet id to get the body back
+                ByteMessage body = new ByteMessage(frame.duplicate());
+                body.readVarInt();
+                body.readVarInt();
+                msg.writeBytes(body, body.readerIndex(), body.readableBytes());
+                return;
+            }
         }
 
         throw new IllegalArgumentException("No mappings for version " + version);
@@ -92,29 +168,96 @@ public class PacketSnapshot implements PacketOut {
         return this.packetClazz.getSimpleName();
     }
 
+    private static boolean isCompressible(@NonNull State state, @NonNull Version version) {
+        // Compression is enabled during login and is available since 1.8
+        return version.moreOrEqual(Version.V1_8)
+                && (state == State.LOGIN || state == State.CONFIGURATION || state == State.PLAY);
+    }
+
     @NonNull
-    public static PacketSnapshot of(@NonNull PacketOut packet) {
-        return of(packet.getClass(), version -> packet);
+    private static ByteBuf deduplicate(@NonNull Map<ByteBuf, ByteBuf> uniqueFrames, @NonNull ByteBuf frame) {
+        ByteBuf existing = uniqueFrames.putIfAbsent(frame, frame);
+
+        if (existing != null) {
+            frame.release();
+            return existing;
+        }
+
+        return frame;
     }
 
     @NonNull
-    public static PacketSnapshot of(@NonNull PacketOut packet, Version version) {
-        return of(packet.getClass(), version2 -> packet, List.of(version));
+    private ByteBuf createCompressedFrame(int packetId, @NonNull ByteBuf body) {
+        int dataLength = ByteMessage.getVarIntSize(packetId) + body.readableBytes();
+        ByteMessage packet = new ByteMessage(ByteBufAllocator.DEFAULT.heapBuffer(dataLength));
+
+        try {
+            packet.writeVarInt(packetId);
+            packet.writeBytes(body, body.readerIndex(), body.readableBytes());
+
+            if (dataLength < this.compressionThreshold) {
+                ByteMessage frame = new ByteMessage(ByteBufAllocator.DEFAULT.directBuffer(ByteMessage.getVarIntSize(dataLength + 1) + dataLength + 1));
+                frame.writeVarInt(dataLength + 1);
+                frame.writeVarInt(0);
+                frame.writeBytes(packet);
+                return frame.asReadOnly();
+            }
+
+            ByteBuf compressed = ByteBufAllocator.DEFAULT.heapBuffer();
+
+            try {
+                // Snapshots are compressed only once, so it's worth to use the best compression
+                CompressionUtils.compressBest(packet, compressed);
+
+                int length = ByteMessage.getVarIntSize(dataLength) + compressed.readableBytes();
+                ByteMessage frame = new ByteMessage(ByteBufAllocator.DEFAULT.directBuffer(ByteMessage.getVarIntSize(length) + length));
+                frame.writeVarInt(length);
+                frame.writeVarInt(dataLength);
+                frame.writeBytes(compressed);
+                return frame.asReadOnly();
+            } finally {
+                compressed.release();
+            }
+        } finally {
+            packet.release();
+        }
+    }
+
+    @NonNull
+    private static ByteBuf createFrame(int packetId, @NonNull ByteBuf body) {
+        int length = ByteMessage.getVarIntSize(packetId) + body.readableBytes();
+        ByteMessage frame = new ByteMessage(ByteBufAllocator.DEFAULT.directBuffer(ByteMessage.getVarIntSize(length) + length));
+        frame.writeVarInt(length);
+        frame.writeVarInt(packetId);
+        frame.writeBytes(body, body.readerIndex(), body.readableBytes());
+        return frame.asReadOnly();
+    }
+
+    @NonNull
+    public static PacketSnapshot of(@NonNull PacketOut packet, int compressionThreshold) {
+        return of(packet.getClass(), version -> packet, compressionThreshold);
+    }
+
+    @NonNull
+    public static PacketSnapshot of(@NonNull PacketOut packet, Version version, int compressionThreshold) {
+        return of(packet.getClass(), version2 -> packet, List.of(version), compressionThreshold);
     }
 
     @NonNull
     public static PacketSnapshot of(@NonNull Class<? extends PacketOut> packetClazz,
                                     @NonNull Function<Version, PacketOut> packetComputeFunction,
-                                    @NonNull List<Version> versions) {
-        PacketSnapshot snapshot = new PacketSnapshot(packetClazz);
+                                    @NonNull List<Version> versions,
+                                    int compressionThreshold) {
+        PacketSnapshot snapshot = new PacketSnapshot(packetClazz, compressionThreshold);
         snapshot.encode(packetComputeFunction, versions);
         return snapshot;
     }
 
     @NonNull
     public static PacketSnapshot of(@NonNull Class<? extends PacketOut> packetClazz,
-                                    @NonNull Function<Version, PacketOut> packetComputeFunction) {
-        PacketSnapshot snapshot = new PacketSnapshot(packetClazz);
+                                    @NonNull Function<Version, PacketOut> packetComputeFunction,
+                                    int compressionThreshold) {
+        PacketSnapshot snapshot = new PacketSnapshot(packetClazz, compressionThreshold);
         snapshot.encode(packetComputeFunction);
         return snapshot;
     }
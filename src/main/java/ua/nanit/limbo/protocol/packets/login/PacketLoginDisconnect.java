@@ -34,9 +34,16 @@ import ua.nanit.limbo.util.ComponentUtils;
 public class PacketLoginDisconnect implements PacketOut {
 
     private Component reason;
+    // Reason already serialized for the client version, used instead of the component if set
+    private String json;
 
     @Override
     public void encode(@NonNull ByteMessage msg, @NonNull Version version) {
+        if (this.json != null) {
+            msg.writeString(this.json);
+            return;
+        }
+
         GsonComponentSerializer gsonComponentSerializer = ComponentUtils.getJsonChatSerializer(version);
         msg.writeString(gsonComponentSerializer.serialize(this.reason));
     }
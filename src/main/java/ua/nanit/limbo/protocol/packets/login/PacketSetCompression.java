@@ -14,27 +14,26 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
+package ua.nanit.limbo.protocol.packets.login;
 
-package ua.nanit.limbo.protocol.packets.status;
-
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.NonNull;
-import ua.nanit.limbo.connection.ClientConnection;
 import ua.nanit.limbo.protocol.ByteMessage;
-import ua.nanit.limbo.protocol.PacketIn;
+import ua.nanit.limbo.protocol.PacketOut;
 import ua.nanit.limbo.protocol.registry.Version;
-import ua.nanit.limbo.server.LimboServer;
 
 @Data
-public class PacketStatusRequest implements PacketIn {
+@AllArgsConstructor
+@NoArgsConstructor
+public class PacketSetCompression implements PacketOut {
 
-    @Override
-    public void decode(@NonNull ByteMessage msg, @NonNull Version version) {
-    }
+    private int threshold;
 
     @Override
-    public void handle(@NonNull ClientConnection conn, @NonNull LimboServer server) {
-        server.getPacketHandler().handle(conn, this);
+    public void encode(@NonNull ByteMessage msg, @NonNull Version version) {
+        msg.writeVarInt(this.threshold);
     }
 
     @Override
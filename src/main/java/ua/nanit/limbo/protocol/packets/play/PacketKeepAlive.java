@@ -18,10 +18,12 @@
 package ua.nanit.limbo.protocol.packets.play;
 
 import lombok.*;
+import ua.nanit.limbo.connection.ClientConnection;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.PacketIn;
 import ua.nanit.limbo.protocol.PacketOut;
 import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
 
 @Data
 @AllArgsConstructor
@@ -52,6 +54,11 @@ public class PacketKeepAlive implements PacketIn, PacketOut {
         }
     }
 
+    @Override
+    public void handle(@NonNull ClientConnection conn, @NonNull LimboServer server) {
+        server.getPacketHandler().handle(conn, this);
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName();
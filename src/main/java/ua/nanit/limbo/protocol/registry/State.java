@@ -28,11 +28,10 @@ import ua.nanit.limbo.protocol.packets.configuration.PacketRegistryData;
 import ua.nanit.limbo.protocol.packets.configuration.PacketUpdateTags;
 import ua.nanit.limbo.protocol.packets.login.*;
 import ua.nanit.limbo.protocol.packets.play.*;
-import ua.nanit.limbo.protocol.packets.status.PacketStatusPing;
-import ua.nanit.limbo.protocol.packets.status.PacketStatusRequest;
 import ua.nanit.limbo.protocol.packets.status.PacketStatusResponse;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import static ua.nanit.limbo.protocol.registry.Version.*;
@@ -50,22 +49,12 @@ public enum State {
     },
     STATUS {
         {
-            serverBound.register(
-                    PacketStatusRequest::new,
-                    map(0x00, Version.getMin(), Version.getMax())
-            );
-            serverBound.register(
-                    PacketStatusPing::new,
-                    map(0x01, Version.getMin(), Version.getMax())
-            );
+            // Status requests and pings are answered by the handshake handler,
+            // only the response is encoded into a snapshot here
             clientBound.register(
                     PacketStatusResponse::new,
                     map(0x00, Version.getMin(), Version.getMax())
             );
-            clientBound.register(
-                    PacketStatusPing::new,
-                    map(0x01, Version.getMin(), Version.getMax())
-            );
         }
     },
     LOGIN {
@@ -90,6 +79,10 @@ public enum State {
                     PacketLoginSuccess::new,
                     map(0x02, Version.getMin(), Version.getMax())
             );
+            clientBound.register(
+                    PacketSetCompression::new,
+                    map(0x03, V1_8, Version.getMax())
+            );
             clientBound.register(
                     PacketLoginPluginRequest::new,
                     map(0x04, Version.getMin(), Version.getMax())
@@ -460,62 +453,80 @@ public enum State {
     public final ProtocolMappings clientBound = new ProtocolMappings();
 
     public static class ProtocolMappings {
-        private final Map<Version, PacketRegistry> registry = new EnumMap<>(Version.class);
+        // Indexed by version ordinal, versions are declared in protocol order
+        private final PacketRegistry[] registry = new PacketRegistry[Version.values().length];
 
         @NonNull
         public PacketRegistry getRegistry(@NonNull Version version) {
-            return this.registry.getOrDefault(version, this.registry.get(getMin()));
+            PacketRegistry registry = this.registry[version.ordinal()];
+            return registry != null ? registry : this.registry[getMin().ordinal()];
         }
 
         public void register(@NonNull Supplier<?> packet, @NonNull Mapping... mappings) {
+            Version[] versions = Version.values();
+
             for (Mapping mapping : mappings) {
-                for (Version ver : getRange(mapping)) {
-                    PacketRegistry reg = this.registry.computeIfAbsent(ver, PacketRegistry::new);
-                    reg.register(mapping.packetId, packet);
+                for (int i = mapping.from.ordinal(); i <= mapping.to.ordinal(); i++) {
+                    if (this.registry[i] == null) {
+                        this.registry[i] = new PacketRegistry(versions[i]);
+                    }
+                    this.registry[i].register(mapping.packetId, packet);
                 }
             }
         }
+    }
 
-        @NonNull
-        private Collection<Version> getRange(@NonNull Mapping mapping) {
-            Version from = mapping.from;
-            Version curr = mapping.to;
-
-            if (curr == from)
-                return Collections.singletonList(from);
-
-            List<Version> versions = new LinkedList<>();
+    public static class PacketRegistry {
 
-            while (curr != from) {
-                versions.add(curr);
-                curr = curr.getPrev();
+        // Global dense index of each packet class, so ids can be looked up in a plain array
+        private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+        private static final ClassValue<Integer> CLASS_INDEX = new ClassValue<>() {
+            @Override
+            protected Integer computeValue(@NonNull Class<?> type) {
+                return CLASS_COUNTER.getAndIncrement();
             }
+        };
 
-            versions.add(from);
+        @Getter
+        private final Version version;
+        private Supplier<?>[] packetsById = new Supplier<?>[0];
+        private int[] packetIdByClass = new int[0];
 
-            return versions;
+        public PacketRegistry(@NonNull Version version) {
+            this.version = version;
         }
-    }
-
-    @AllArgsConstructor
-    @Getter
-    public static class PacketRegistry {
-        private final Version version;
-        private final Map<Integer, Supplier<?>> packetsById = new HashMap<>();
-        private final Map<Class<?>, Integer> packetIdByClass = new HashMap<>();
 
         public Packet getPacket(int packetId) {
-            Supplier<?> supplier = packetsById.get(packetId);
+            if (packetId < 0 || packetId >= packetsById.length) {
+                return null;
+            }
+
+            Supplier<?> supplier = packetsById[packetId];
             return supplier == null ? null : (Packet) supplier.get();
         }
 
+        public boolean hasPacket(int packetId) {
+            return packetId >= 0 && packetId < packetsById.length && packetsById[packetId] != null;
+        }
+
         public int getPacketId(@NonNull Class<?> packetClass) {
-            return packetIdByClass.getOrDefault(packetClass, -1);
+            int classIndex = CLASS_INDEX.get(packetClass);
+            return classIndex < packetIdByClass.length ? packetIdByClass[classIndex] : -1;
         }
 
         public void register(int packetId, @NonNull Supplier<?> supplier) {
-            this.packetsById.put(packetId, supplier);
-            this.packetIdByClass.put(supplier.get().getClass(), packetId);
+            if (packetId >= this.packetsById.length) {
+                this.packetsById = Arrays.copyOf(this.packetsById, packetId + 1);
+            }
+            this.packetsById[packetId] = supplier;
+
+            int classIndex = CLASS_INDEX.get(supplier.get().getClass());
+            if (classIndex >= this.packetIdByClass.length) {
+                int oldLength = this.packetIdByClass.length;
+                this.packetIdByClass = Arrays.copyOf(this.packetIdByClass, classIndex + 1);
+                Arrays.fill(this.packetIdByClass, oldLength, this.packetIdByClass.length, -1);
+            }
+            this.packetIdByClass[classIndex] = packetId;
         }
     }
 
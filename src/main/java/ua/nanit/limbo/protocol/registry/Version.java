@@ -21,9 +21,6 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @RequiredArgsConstructor
 @Getter
 public enum Version {
@@ -95,20 +92,23 @@ public enum Version {
     // 26.1.1-26.1.2 has same protocol number
     V26_2(776, "26.2");
 
-    private static final Map<Integer, Version> VERSION_MAP;
+    // Indexed by protocol number, protocol numbers are small enough for a plain array
+    private static final Version[] VERSION_BY_PROTOCOL;
     private static final Version MAX;
 
     static {
         Version[] values = values();
 
-        VERSION_MAP = new HashMap<>();
         MAX = values[values.length - 1];
+        VERSION_BY_PROTOCOL = new Version[MAX.getProtocolNumber() + 1];
 
         Version last = null;
         for (Version version : values) {
             version.prev = last;
             last = version;
-            VERSION_MAP.put(version.getProtocolNumber(), version);
+            if (version.isSupported()) {
+                VERSION_BY_PROTOCOL[version.getProtocolNumber()] = version;
+            }
         }
     }
 
@@ -152,6 +152,11 @@ public enum Version {
 
     @NonNull
     public static Version of(int protocolNumber) {
-        return VERSION_MAP.getOrDefault(protocolNumber, UNDEFINED);
+        if (protocolNumber < 0 || protocolNumber >= VERSION_BY_PROTOCOL.length) {
+            return UNDEFINED;
+        }
+
+        Version version = VERSION_BY_PROTOCOL[protocolNumber];
+        return version != null ? version : UNDEFINED;
     }
 }
@@ -74,6 +74,10 @@ public final class CommandManager extends Thread {
         register(new CmdHelp(server), "help");
         register(new CmdConn(server), "conn");
         register(new CmdMem(), "mem");
+        register(new CmdLatency(), "latency");
+        register(new CmdLogs(), "logs");
+        register(new CmdLoops(server), "loops");
+        register(new CmdLiteBans(server), "litebans");
         register(new CmdStop(), "stop");
         register(new CmdVersion(), "version", "ver");
     }
@@ -19,6 +19,7 @@ package ua.nanit.limbo.server;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import ua.nanit.limbo.configuration.LimboConfig;
 import ua.nanit.limbo.connection.ClientConnection;
 
@@ -41,6 +42,11 @@ public final class Connections {
         return Collections.unmodifiableCollection(connections.values());
     }
 
+    @Nullable
+    public ClientConnection getConnection(@NonNull UUID uuid) {
+        return this.connections.get(uuid);
+    }
+
     public int getCount() {
         return this.connections.size();
     }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Async appender which never blocks the logging thread. When the queue is full, events are dropped,
+ * and when it's nearly full, events below WARN are discarded first.
+ * Both cases are counted, so lost messages can be noticed with the "logs" command
+ */
+public class DroppingAsyncAppender extends AsyncAppender {
+
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder DISCARDED = new LongAdder();
+
+    public DroppingAsyncAppender() {
+        setNeverBlock(true);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        int remainingCapacity = getRemainingCapacity();
+
+        if (remainingCapacity == 0) {
+            DROPPED.increment();
+            return;
+        }
+
+        if (remainingCapacity < getDiscardingThreshold() && isDiscardable(event)) {
+            DISCARDED.increment();
+            return;
+        }
+
+        super.append(event);
+    }
+
+    /**
+     * @return Count of events dropped because the queue was full
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * @return Count of events below WARN discarded because the queue was nearly full
+     */
+    public static long getDiscardedCount() {
+        return DISCARDED.sum();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keep-alive round trip histogram of a single event loop.
+ * Values are recorded in microseconds into log-linear buckets (8 buckets per power of two,
+ * so about 12% precision), which makes recording a couple of shifts and one array increment.
+ * Only the owning thread writes the counters, others read them without synchronization,
+ * which is fine for monitoring
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final List<LatencyHistogram> HISTOGRAMS = new CopyOnWriteArrayList<>();
+    private static final FastThreadLocal<LatencyHistogram> CURRENT = new FastThreadLocal<>() {
+        @Override
+        protected LatencyHistogram initialValue() {
+            LatencyHistogram histogram = new LatencyHistogram(Thread.currentThread().getName());
+            HISTOGRAMS.add(histogram);
+            return histogram;
+        }
+    };
+
+    @Getter
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+
+    private LatencyHistogram(@NonNull String name) {
+        this.name = name;
+    }
+
+    public void record(long micros) {
+        this.counts[bucketOf(Math.max(0, Math.min(micros, MAX_VALUE)))]++;
+    }
+
+    /**
+     * Copy the current counters to calculate percentiles
+     *
+     * @return Copy of the bucket counters
+     */
+    public long[] snapshot() {
+        return this.counts.clone();
+    }
+
+    /**
+     * Histogram of the current event loop thread. Must be called only from the event loop
+     */
+    @NonNull
+    public static LatencyHistogram current() {
+        return CURRENT.get();
+    }
+
+    @NonNull
+    public static List<LatencyHistogram> getAll() {
+        return Collections.unmodifiableList(HISTOGRAMS);
+    }
+
+    public static long[] emptySnapshot() {
+        return new long[BUCKETS];
+    }
+
+    public static long count(long[] snapshot) {
+        long count = 0;
+        for (long bucket : snapshot) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * Find the value at the given percentile
+     *
+     * @param snapshot   Bucket counters
+     * @param percentile Percentile from 0 to 100
+     * @return Upper bound of the bucket containing the percentile in microseconds, or 0 if there are no values
+     */
+    public static long percentile(long[] snapshot, double percentile) {
+        long count = count(snapshot);
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+
+        return MAX_VALUE;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
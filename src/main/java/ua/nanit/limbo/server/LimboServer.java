@@ -25,17 +25,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ua.nanit.limbo.configuration.LimboConfig;
 import ua.nanit.limbo.connection.ClientChannelInitializer;
-import ua.nanit.limbo.connection.ClientConnection;
 import ua.nanit.limbo.connection.PacketHandler;
 import ua.nanit.limbo.connection.PacketSnapshots;
 import ua.nanit.limbo.litebans.LiteBansIntegration;
+import ua.nanit.limbo.util.CoarseClock;
 import ua.nanit.limbo.world.DimensionRegistry;
 
 import java.nio.file.Paths;
 import java.util.Locale;
 import java.util.Optional;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 @Getter
 public final class LimboServer {
@@ -46,11 +44,11 @@ public final class LimboServer {
     private PacketHandler packetHandler;
     private Connections connections;
     private DimensionRegistry dimensionRegistry;
-    private ScheduledFuture<?> keepAliveTask;
     private @Nullable LiteBansIntegration liteBans;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    private @Nullable EventLoopGroup statusGroup;
 
     private CommandManager commandManager;
 
@@ -76,8 +74,6 @@ public final class LimboServer {
 
         startBootstrap();
 
-        keepAliveTask = workerGroup.scheduleAtFixedRate(this::broadcastKeepAlive, 0L, 5L, TimeUnit.SECONDS);
-
         Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "NanoLimbo shutdown thread"));
 
         Log.info("Server started on %s", config.getAddress());
@@ -89,7 +85,7 @@ public final class LimboServer {
         if (config.isLiteBansIntegration()) {
             Log.info("Connecting to LiteBans Database...");
             try {
-                this.liteBans = new LiteBansIntegration(config.getLiteBansConnectionString());
+                this.liteBans = new LiteBansIntegration(config, connections);
                 Log.info("Success! Connected to LiteBans Database.");
             } catch (Exception error) {
                 Log.error("Failed to connect to LiteBans", error);
@@ -114,8 +110,15 @@ public final class LimboServer {
         bossGroup = new MultiThreadIoEventLoopGroup(config.getBossGroupSize(), ioHandlerFactory);
         workerGroup = new MultiThreadIoEventLoopGroup(config.getWorkerGroupSize(), ioHandlerFactory);
 
+        if (config.getStatusGroupSize() > 0) {
+            statusGroup = new MultiThreadIoEventLoopGroup(config.getStatusGroupSize(), ioHandlerFactory);
+        }
+
+        // Boss group is mostly idle, so the clock update doesn't delay connections
+        CoarseClock.start(bossGroup);
+
         new ServerBootstrap()
-                .group(bossGroup, workerGroup)
+                .group(bossGroup, statusGroup != null ? statusGroup : workerGroup)
                 .channelFactory(channelFactory)
                 .childHandler(new ClientChannelInitializer(this))
                 .childOption(ChannelOption.TCP_NODELAY, true)
@@ -123,17 +126,9 @@ public final class LimboServer {
                 .bind();
     }
 
-    private void broadcastKeepAlive() {
-        connections.getAllConnections().forEach(ClientConnection::sendKeepAlive);
-    }
-
     private void stop() {
         Log.info("Stopping server...");
 
-        if (keepAliveTask != null) {
-            keepAliveTask.cancel(true);
-        }
-
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
@@ -142,6 +137,14 @@ public final class LimboServer {
             workerGroup.shutdownGracefully();
         }
 
+        if (statusGroup != null) {
+            statusGroup.shutdownGracefully();
+        }
+
+        if (liteBans != null) {
+            liteBans.close();
+        }
+
         Log.info("Server stopped, Goodbye!");
     }
 
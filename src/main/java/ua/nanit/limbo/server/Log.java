@@ -31,32 +31,55 @@ public class Log {
     private static final Logger LOGGER = LoggerFactory.getLogger("Limbo");
     private static int debugLevel = Level.INFO.getIndex();
 
+    // Messages are formatted only if the logger level passes them. The configured level gates only
+    // debug messages, so console commands and startup messages are printed with any level
+
     public static void info(@NonNull Object msg, @Nullable Object... args) {
-        LOGGER.info(String.format(msg.toString(), args));
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(format(msg, args));
+        }
     }
 
     public static void debug(@NonNull Object msg, @Nullable Object... args) {
-        LOGGER.debug(String.format(msg.toString(), args));
+        if (isEnabled(Level.DEBUG) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(format(msg, args));
+        }
     }
 
     public static void warning(@NonNull Object msg, @Nullable Object... args) {
-        LOGGER.warn(String.format(msg.toString(), args));
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn(format(msg, args));
+        }
     }
 
     public static void warning(@NonNull Object msg, @NonNull Throwable t, @Nullable Object... args) {
-        LOGGER.warn(String.format(msg.toString(), args), t);
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn(format(msg, args), t);
+        }
     }
 
     public static void error(@NonNull Object msg, @Nullable Object... args) {
-        LOGGER.error(msg.toString(), args);
+        if (LOGGER.isErrorEnabled()) {
+            LOGGER.error(format(msg, args));
+        }
     }
 
     public static void error(@NonNull Object msg, @NonNull Throwable t, @Nullable Object... args) {
-        LOGGER.error(String.format(msg.toString(), args), t);
+        if (LOGGER.isErrorEnabled()) {
+            LOGGER.error(format(msg, args), t);
+        }
     }
 
     public static boolean isDebug() {
-        return debugLevel >= Level.DEBUG.getIndex();
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static boolean isEnabled(@NonNull Level level) {
+        return debugLevel >= level.getIndex();
+    }
+
+    private static String format(@NonNull Object msg, @Nullable Object... args) {
+        return args == null || args.length == 0 ? msg.toString() : String.format(msg.toString(), args);
     }
 
     static void setLevel(int level) {
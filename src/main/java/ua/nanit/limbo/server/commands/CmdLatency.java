@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.commands;
+
+import lombok.NonNull;
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LatencyHistogram;
+import ua.nanit.limbo.server.Log;
+
+public class CmdLatency implements Command {
+
+    @Override
+    public void execute() {
+        long[] total = LatencyHistogram.emptySnapshot();
+
+        Log.info("Keep-alive round trip time:");
+
+        for (LatencyHistogram histogram : LatencyHistogram.getAll()) {
+            long[] snapshot = histogram.snapshot();
+
+            for (int i = 0; i < total.length; i++) {
+                total[i] += snapshot[i];
+            }
+
+            print(histogram.getName(), snapshot);
+        }
+
+        print("Total", total);
+    }
+
+    private void print(String name, long[] snapshot) {
+        Log.info("%s: %d samples, p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms",
+                name,
+                LatencyHistogram.count(snapshot),
+                LatencyHistogram.percentile(snapshot, 50) / 1000.0,
+                LatencyHistogram.percentile(snapshot, 99) / 1000.0,
+                LatencyHistogram.percentile(snapshot, 99.9) / 1000.0);
+    }
+
+    @NonNull
+    @Override
+    public String description() {
+        return "Display keep-alive latency per event loop";
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.commands;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import ua.nanit.limbo.litebans.CircuitBreaker;
+import ua.nanit.limbo.litebans.LiteBansIntegration;
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+@AllArgsConstructor
+public class CmdLiteBans implements Command {
+
+    private final LimboServer server;
+
+    @Override
+    public void execute() {
+        LiteBansIntegration liteBans = server.getLiteBans().orElse(null);
+        if (liteBans == null) {
+            Log.info("LiteBans integration is disabled");
+            return;
+        }
+
+        CircuitBreaker breaker = liteBans.getCircuitBreaker();
+        Log.info("LiteBans database: %s", breaker.getState());
+        Log.info("Circuit breaker trips: %d", breaker.getTrips());
+        Log.info("Queries rejected by the open breaker: %d", breaker.getRejected());
+        Log.info("Queries without a free pooled connection: %d", liteBans.getPoolSaturations());
+        Log.info("Lookups answered by the fail policy (%s): %d", liteBans.getFailPolicy(), liteBans.getFallbacks());
+    }
+
+    @NonNull
+    @Override
+    public String description() {
+        return "Display LiteBans database state and fallback counters";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.commands;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SingleThreadEventLoop;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.NonNull;
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class CmdLoops implements Command {
+
+    private final LimboServer server;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // Thread id -> CPU time on the previous call, to show the load since then
+    private final Map<Long, Long> lastCpuTime = new HashMap<>();
+    private long lastCallTime = System.nanoTime()
+            - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+
+    public CmdLoops(@NonNull LimboServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void execute() {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - this.lastCallTime);
+        this.lastCallTime = now;
+
+        Log.info("Event loops (CPU usage since the previous call):");
+        print("boss", this.server.getBossGroup(), elapsed);
+        if (this.server.getStatusGroup() != null) {
+            print("status", this.server.getStatusGroup(), elapsed);
+        }
+        print("worker", this.server.getWorkerGroup(), elapsed);
+    }
+
+    private void print(String name, EventLoopGroup group, long elapsed) {
+        int index = 0;
+
+        for (EventExecutor executor : group) {
+            if (!(executor instanceof SingleThreadEventExecutor loop)) {
+                continue;
+            }
+
+            long threadId = loop.threadProperties().id();
+            long cpuTime = Math.max(0, this.threads.getThreadCpuTime(threadId));
+            long lastCpuTime = this.lastCpuTime.getOrDefault(threadId, 0L);
+            this.lastCpuTime.put(threadId, cpuTime);
+
+            int channels = loop instanceof SingleThreadEventLoop eventLoop ? eventLoop.registeredChannels() : -1;
+
+            Log.info("%s #%d: CPU %.1f%%, pending tasks %d, channels %d",
+                    name, index++, (cpuTime - lastCpuTime) * 100.0 / elapsed, loop.pendingTasks(), channels);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String description() {
+        return "Display event loops load and queue depth";
+    }
+}
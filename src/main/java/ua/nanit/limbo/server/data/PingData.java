@@ -26,5 +26,6 @@ public class PingData {
     private Component version;
     private Component description;
     private int protocol;
+    private long cacheInterval;
 
 }
\ No newline at end of file
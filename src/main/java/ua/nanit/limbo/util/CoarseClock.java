@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.util;
+
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monotonic millisecond clock which is updated by a single scheduled task,
+ * for hot paths which need the time of every packet, but not its precise value.
+ * Until the clock is started, it returns the time of its class initialization
+ */
+@UtilityClass
+public class CoarseClock {
+
+    public static final long TICK_MILLIS = 10;
+
+    private static final long ORIGIN = System.nanoTime();
+    private static volatile long millis;
+
+    /**
+     * Start updating the clock. The task stops together with the executor group
+     *
+     * @param group Executor group to run the update task on
+     */
+    public static void start(@NonNull EventExecutorGroup group) {
+        group.next().scheduleAtFixedRate(CoarseClock::update, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Milliseconds since an arbitrary origin, at most one tick behind the actual time
+     */
+    public static long millis() {
+        return millis;
+    }
+
+    private static void update() {
+        millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ORIGIN);
+    }
+}
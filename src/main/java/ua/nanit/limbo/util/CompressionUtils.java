@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ua.nanit.limbo.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Zlib helpers for the packet compression.
+ * Each event loop thread keeps one deflater and one inflater instead of one per connection,
+ * since every packet is compressed as an independent zlib stream
+ */
+@UtilityClass
+public class CompressionUtils {
+
+    private static final int DEFLATE_CHUNK_SIZE = 8192;
+
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Deflater> BEST_DEFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION);
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    public static void compress(@NonNull ByteBuf in, @NonNull ByteBuf out) {
+        compress(DEFLATER.get(), in, out);
+    }
+
+    /**
+     * Compress with the best compression level, for data which is compressed once and sent many times
+     */
+    public static void compressBest(@NonNull ByteBuf in, @NonNull ByteBuf out) {
+        compress(BEST_DEFLATER.get(), in, out);
+    }
+
+    private static void compress(@NonNull Deflater deflater, @NonNull ByteBuf in, @NonNull ByteBuf out) {
+        try {
+            deflater.setInput(in.nioBuffer());
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                out.ensureWritable(DEFLATE_CHUNK_SIZE);
+                ByteBuffer dst = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + deflater.deflate(dst));
+            }
+
+            in.skipBytes(in.readableBytes());
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    public static void decompress(@NonNull ByteBuf in, @NonNull ByteBuf out, int uncompressedSize) {
+        Inflater inflater = INFLATER.get();
+
+        try {
+            inflater.setInput(in.nioBuffer());
+
+            out.ensureWritable(uncompressedSize);
+            ByteBuffer dst = out.nioBuffer(out.writerIndex(), uncompressedSize);
+
+            while (!inflater.finished() && dst.hasRemaining()) {
+                if (inflater.inflate(dst) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+
+            if (!inflater.finished() || dst.hasRemaining()) {
+                throw new DecoderException("Badly compressed packet, expected " + uncompressedSize
+                        + " bytes, got " + (uncompressedSize - dst.remaining()));
+            }
+
+            out.writerIndex(out.writerIndex() + uncompressedSize);
+            in.skipBytes(in.readableBytes());
+        } catch (DataFormatException e) {
+            throw new DecoderException("Badly compressed packet", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}